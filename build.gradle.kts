@@ -14,10 +14,35 @@ buildscript {
     }
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
 dependencies {
     api(project(":bonsai"))
     compileOnly("org.apache.fory:fory-core:0.14.1")
     compileOnly("com.github.ben-manes.caffeine:caffeine:2.9.3")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+    "jmhRuntimeOnly"("org.apache.fory:fory-core:0.14.1")
+    "jmhRuntimeOnly"("com.github.ben-manes.caffeine:caffeine:2.9.3")
+}
+
+// The benchmarks use Unix domain server sockets, so they need a 21 runtime like the java21 layer
+tasks.named<JavaCompile>(jmh.compileJavaTaskName) {
+    options.release.set(21)
+}
+
+// e.g. ./gradlew jmh -Pjmh.args="TransportBenchmark -prof gc"
+tasks.register<JavaExec>("jmh") {
+    group = "verification"
+    description = "Runs the JMH benchmarks against the shaded multi-release jar."
+    dependsOn(tasks.shadowJar, jmh.classesTaskName)
+
+    mainClass.set("org.openjdk.jmh.Main")
+    classpath = files(tasks.shadowJar) + jmh.output + configurations[jmh.runtimeClasspathConfigurationName]
+    args = (project.findProperty("jmh.args") as String? ?: "").split(" ").filter { it.isNotBlank() }
 }
 
 tasks.shadowJar {
@@ -0,0 +1,205 @@
+package net.rainbowcreation.bonsai.api.benchmark;
+
+import net.rainbowcreation.bonsai.api.connection.FrameCodec;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Bonsai server, so the benchmarks measure the client
+ * and the wire rather than storage. It answers the handshake with a fixed protocol
+ * version and no optional features, every GET with {@link #VALUE} and every other
+ * request with an empty 2xx. Counts the bytes of request and response frames,
+ * handshake excluded.
+ */
+final class FakeServer implements Closeable {
+    static final byte[] VALUE = {(byte) 0xBF, 1, 0, 0, 0, 42};
+
+    private final ServerSocketChannel server;
+    private final int version;
+    private final Path socketFile;
+
+    final AtomicLong requestBytes = new AtomicLong();
+    final AtomicLong responseBytes = new AtomicLong();
+
+    private FakeServer(ServerSocketChannel server, int version, Path socketFile) {
+        this.server = server;
+        this.version = version;
+        this.socketFile = socketFile;
+        Thread acceptor = new Thread(this::acceptLoop, "FakeServer-Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    static FakeServer tcp(int version) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return new FakeServer(server, version, null);
+    }
+
+    static FakeServer unixDomain(int version) throws IOException {
+        Path file = Files.createTempDirectory("bonsai-bench").resolve("bonsai.sock");
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(file));
+        return new FakeServer(server, version, file);
+    }
+
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    String path() {
+        return socketFile.toString();
+    }
+
+    /**
+     * Forgets the bytes counted so far, such as the handshake.
+     */
+    void resetCounters() {
+        requestBytes.set(0);
+        responseBytes.set(0);
+    }
+
+    private void acceptLoop() {
+        while (server.isOpen()) {
+            try {
+                SocketChannel ch = server.accept();
+                Thread t = new Thread(() -> serve(ch), "FakeServer-Connection");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try (SocketChannel channel = ch) {
+            BufferedInputStream buffered = new BufferedInputStream(Channels.newInputStream(channel), 65536);
+            DataInputStream in = new DataInputStream(buffered);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536));
+
+            // Frames stay v1 until a hello switches them; clients on bonsai.protocol=v1 never send one
+            int mode = FrameCodec.PROTOCOL_V1;
+            byte[] frame = new byte[65536];
+            while (true) {
+                if (mode == FrameCodec.PROTOCOL_V2) {
+                    int len = readVarInt(in);
+                    in.readFully(frame, 0, len);
+                    int idLen = varIntLength(frame);
+                    int id = readVarInt(frame);
+                    byte[] body = frame[idLen] == RequestOp.GET.getByte() ? VALUE : EMPTY;
+                    int respLen = varIntSize(id) + 1 + body.length;
+                    writeVarInt(out, respLen);
+                    writeVarInt(out, id);
+                    out.writeByte(2);
+                    out.write(body);
+                    requestBytes.addAndGet(varIntSize(len) + len);
+                    responseBytes.addAndGet(varIntSize(respLen) + respLen);
+                } else {
+                    // The BonsaiRequest header opens with id(8) op(1)
+                    int len = in.readInt();
+                    in.readFully(frame, 0, len);
+                    int id = (int) readLong(frame);
+                    if (id == FrameCodec.HELLO_ID) {
+                        out.writeInt(18);
+                        out.writeInt(FrameCodec.HELLO_ID);
+                        out.writeInt(200);
+                        out.writeInt(6);
+                        out.writeInt(FrameCodec.HELLO_MAGIC);
+                        out.writeByte(version);
+                        out.writeByte(0);
+                        out.flush();
+                        mode = version;
+                        continue;
+                    }
+                    byte[] body = frame[8] == RequestOp.GET.getByte() ? VALUE : EMPTY;
+                    out.writeInt(12 + body.length);
+                    out.writeInt(id);
+                    out.writeInt(200);
+                    out.writeInt(body.length);
+                    out.write(body);
+                    requestBytes.addAndGet(4 + len);
+                    responseBytes.addAndGet(16 + body.length);
+                }
+                if (buffered.available() == 0) out.flush();
+            }
+        } catch (IOException ignored) {
+            // Client went away
+        }
+    }
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static int readVarInt(byte[] buf) {
+        int value = 0;
+        for (int i = 0; i < 5; i++) {
+            value |= (buf[i] & 0x7F) << (7 * i);
+            if (buf[i] >= 0) break;
+        }
+        return value;
+    }
+
+    private static int varIntLength(byte[] buf) {
+        int i = 0;
+        while (buf[i] < 0) i++;
+        return i + 1;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static long readLong(byte[] buf) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) value = (value << 8) | (buf[i] & 0xFF);
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        if (socketFile != null) Files.deleteIfExists(socketFile);
+    }
+}
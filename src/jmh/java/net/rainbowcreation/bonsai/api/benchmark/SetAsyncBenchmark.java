@@ -0,0 +1,58 @@
+package net.rainbowcreation.bonsai.api.benchmark;
+
+import net.rainbowcreation.bonsai.api.connection.FrameCodec;
+import net.rainbowcreation.bonsai.api.connection.NioConnection;
+import net.rainbowcreation.bonsai.api.impl.RemoteTable;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a SET from {@code setAsync} until its acknowledgement, meant to be run
+ * with {@code -prof gc} for the bytes allocated per write.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SetAsyncBenchmark {
+    private static final String KEY = "user:000000000000001";
+    private static final String TEXT = "a short string value";
+
+    private FakeServer server;
+    private NioConnection conn;
+    private RemoteTable<Integer> ints;
+    private RemoteTable<String> strings;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeServer.tcp(FrameCodec.PROTOCOL_V2);
+        conn = new NioConnection("127.0.0.1", server.port());
+        ints = new RemoteTable<>(conn, (short) 1, (short) 1, "bench", "ints", Integer.class, true);
+        strings = new RemoteTable<>(conn, (short) 1, (short) 2, "bench", "strings", String.class, true);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public Object setInt() throws Exception {
+        return ints.setAsync(KEY, 42).get();
+    }
+
+    @Benchmark
+    public Object setIntWithTtl() throws Exception {
+        return ints.setAsync(KEY, 42, 60, TimeUnit.SECONDS).get();
+    }
+
+    @Benchmark
+    public Object setString() throws Exception {
+        return strings.setAsync(KEY, TEXT).get();
+    }
+}
@@ -0,0 +1,72 @@
+package net.rainbowcreation.bonsai.api.benchmark;
+
+import net.rainbowcreation.bonsai.api.connection.FrameCodec;
+import net.rainbowcreation.bonsai.api.connection.NioConnection;
+import net.rainbowcreation.bonsai.api.connection.PipelinedConnection;
+import net.rainbowcreation.bonsai.api.connection.TcpConnection;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The NIO event-loop transport against the blocking socket-per-reader one, over
+ * loopback TCP: one request at a time, and a window of requests in flight.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TransportBenchmark {
+    private static final String KEY = "user:000000000000001";
+    private static final int WINDOW = 64;
+
+    @Param({"nio", "blocking"})
+    public String transport;
+
+    private FakeServer server;
+    private PipelinedConnection conn;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeServer.tcp(FrameCodec.PROTOCOL_V2);
+        conn = "nio".equals(transport)
+            ? new NioConnection("127.0.0.1", server.port())
+            : new TcpConnection("127.0.0.1", server.port());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.stop();
+        server.close();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] roundTrip() {
+        return conn.send(RequestOp.GET, (short) 1, (short) 1, KEY, null, (byte) 0).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(WINDOW)
+    public Object pipelined() {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[WINDOW];
+        for (int i = 0; i < WINDOW; i++) {
+            futures[i] = conn.send(RequestOp.GET, (short) 1, (short) 1, KEY, null, (byte) 0);
+        }
+        return CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public byte[] concurrentCallers() {
+        return conn.send(RequestOp.GET, (short) 1, (short) 1, KEY, null, (byte) 0).join();
+    }
+}
@@ -0,0 +1,57 @@
+package net.rainbowcreation.bonsai.api.benchmark;
+
+import net.rainbowcreation.bonsai.api.connection.FrameCodec;
+import net.rainbowcreation.bonsai.api.connection.NioConnection;
+import net.rainbowcreation.bonsai.api.connection.UnixDomainConnection;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a small GET and SET over a Unix domain socket against loopback TCP,
+ * both on the NIO transport.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UnixDomainBenchmark {
+    private static final String KEY = "user:000000000000001";
+
+    @Param({"tcp", "unix"})
+    public String transport;
+
+    private FakeServer server;
+    private NioConnection conn;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("unix".equals(transport)) {
+            server = FakeServer.unixDomain(FrameCodec.PROTOCOL_V2);
+            conn = new UnixDomainConnection(server.path());
+        } else {
+            server = FakeServer.tcp(FrameCodec.PROTOCOL_V2);
+            conn = new NioConnection("127.0.0.1", server.port());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public byte[] get() {
+        return conn.send(RequestOp.GET, (short) 1, (short) 1, KEY, null, (byte) 0).join();
+    }
+
+    @Benchmark
+    public byte[] set() {
+        return conn.send(RequestOp.SET, (short) 1, (short) 1, KEY, FakeServer.VALUE, (byte) 0).join();
+    }
+}
@@ -0,0 +1,65 @@
+package net.rainbowcreation.bonsai.api.benchmark;
+
+import net.rainbowcreation.bonsai.api.connection.NioConnection;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame bytes per GET and SET in each protocol version, for a 20-byte key and a
+ * 6-byte value. The server counts the bytes; they are printed when the trial ends.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WireBytesBenchmark {
+    private static final String KEY = "user:000000000000001";
+
+    @Param({"1", "2"})
+    public int version;
+
+    private FakeServer server;
+    private NioConnection conn;
+    private long ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeServer.tcp(version);
+        conn = new NioConnection("127.0.0.1", server.port());
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        server.resetCounters();
+        ops = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() {
+        System.out.printf("%nv%d: request %.1f B/op, response %.1f B/op%n",
+            version, (double) server.requestBytes.get() / ops, (double) server.responseBytes.get() / ops);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        conn.stop();
+        server.close();
+    }
+
+    @Benchmark
+    public byte[] get() {
+        ops++;
+        return conn.send(RequestOp.GET, (short) 1, (short) 1, KEY, null, (byte) 0).join();
+    }
+
+    @Benchmark
+    public byte[] set() {
+        ops++;
+        return conn.send(RequestOp.SET, (short) 1, (short) 1, KEY, FakeServer.VALUE, (byte) 0).join();
+    }
+}
@@ -4,6 +4,9 @@ import net.rainbowcreation.bonsai.Bonsai;
 import net.rainbowcreation.bonsai.api.impl.RemoteBonsai;
 import net.rainbowcreation.bonsai.api.connection.ConnectionPool;
 import net.rainbowcreation.bonsai.api.connection.HttpConnection;
+import net.rainbowcreation.bonsai.api.connection.ShardedConnection;
+import net.rainbowcreation.bonsai.api.connection.UnixDomainConnection;
+import net.rainbowcreation.bonsai.api.config.Config;
 import net.rainbowcreation.bonsai.util.Stoppable;
 import net.rainbowcreation.bonsai.util.ThreadUtil;
 
@@ -19,6 +22,8 @@ public class BonsApi implements Stoppable {
     public static String HOST = "127.0.0.1";
     public static int TCP_PORT = 4533;
     public static int HTTP_PORT = 8080;
+    /** Comma separated {@code host:port} list; when set, keys are sharded across these servers instead of HOST. */
+    public static String NODES = Config.NODES;
 
     public static final ExecutorService WORKER_POOL = ThreadUtil.newCachedThreadPool();
     public static Logger LOGGER = Logger.getLogger(BonsApi.class.getName());
@@ -60,6 +65,17 @@ public class BonsApi implements Stoppable {
             }
         } catch (Throwable ignored) {}
 
+        if (NODES != null && !NODES.trim().isEmpty()) {
+            LOGGER.info("Sharding across " + NODES);
+            return new RemoteBonsai(new ShardedConnection(NODES, TCP_PORT));
+        }
+
+        String socketPath = UnixDomainConnection.resolvePath(HOST);
+        if (socketPath != null && UnixDomainConnection.isReachable(socketPath)) {
+            LOGGER.info("Connected via Unix domain socket " + socketPath + " with connection pooling.");
+            return new RemoteBonsai(ConnectionPool.unixDomain(socketPath));
+        }
+
         try (Socket s = new Socket(HOST, TCP_PORT)) {
             LOGGER.info("Connected via TCP with connection pooling.");
             return new RemoteBonsai(new ConnectionPool(HOST, TCP_PORT));
@@ -2,24 +2,120 @@ package net.rainbowcreation.bonsai.api.config;
 
 public class Config {
 
+    public static final String NODES =
+            System.getProperty("bonsai.nodes", "");
+
     public static final int POOL_SIZE =
             Integer.getInteger("bonsai.pool.size", 4);
 
+    public static final String POOL_SELECTOR =
+            System.getProperty("bonsai.pool.selector", "p2c");
+
+    public static final boolean POOL_KEY_AFFINITY =
+            Boolean.getBoolean("bonsai.pool.keyAffinity");
+
+    public static final boolean HEDGE_ENABLED =
+            Boolean.getBoolean("bonsai.hedge.enabled");
+
+    public static final double HEDGE_PERCENTILE =
+            Double.parseDouble(System.getProperty("bonsai.hedge.percentile", "95"));
+
+    public static final long HEDGE_MIN_DELAY_MICROS =
+            Long.getLong("bonsai.hedge.minDelayMicros", 500L);
+
+    public static final int HEDGE_BUDGET_PERCENT =
+            Integer.getInteger("bonsai.hedge.budget", 10);
+
+    public static final long REQUEST_TIMEOUT_MS =
+            Long.getLong("bonsai.request.timeout", 5000L);
+
+    public static final boolean DEADLINE_PROPAGATE =
+            Boolean.getBoolean("bonsai.deadline.propagate");
+
+    public static final long RECONNECT_BASE_DELAY_MS =
+            Long.getLong("bonsai.reconnect.baseDelay", 100L);
+
+    public static final long RECONNECT_MAX_DELAY_MS =
+            Long.getLong("bonsai.reconnect.maxDelay", 10000L);
+
+    public static final boolean RECONNECT_REPLAY_WRITES =
+            Boolean.getBoolean("bonsai.reconnect.replayWrites");
+
+    public static final boolean NOREPLY_ENABLED =
+            Boolean.getBoolean("bonsai.noreply");
+
+    public static final boolean IDEMPOTENCY_ENABLED =
+            Boolean.getBoolean("bonsai.idempotency");
+
+    public static final int RETRY_MAX_ATTEMPTS =
+            Integer.getInteger("bonsai.retry.maxAttempts", 3);
+
+    public static final long RETRY_BACKOFF_MS =
+            Long.getLong("bonsai.retry.backoff", 50L);
+
+    public static final String PROTOCOL =
+            System.getProperty("bonsai.protocol", "auto");
+
+    public static final int HANDSHAKE_TIMEOUT_MS =
+            Integer.getInteger("bonsai.handshake.timeout", 1000);
+
+    public static final int COMPRESSION_THRESHOLD =
+            Integer.getInteger("bonsai.compression.threshold", 1024);
+
+    public static final boolean PUSH_DEDICATED =
+            Boolean.getBoolean("bonsai.push.dedicated");
+
+    public static final boolean ROW_FORMAT =
+            Boolean.parseBoolean(System.getProperty("bonsai.row.format", "true"));
+
+    public static final boolean TYPE_DICTIONARY =
+            Boolean.parseBoolean(System.getProperty("bonsai.type.dictionary", "true"));
+
     public static final int PIPELINE_MAX_PENDING =
             Integer.getInteger("bonsai.pipeline.max", 100);
 
+    public static final String PIPELINE_LIMITER =
+            System.getProperty("bonsai.pipeline.limiter", "vegas");
+
+    public static final int PIPELINE_MIN_LIMIT =
+            Integer.getInteger("bonsai.pipeline.minLimit", 8);
+
+    public static final int PIPELINE_MAX_LIMIT =
+            Integer.getInteger("bonsai.pipeline.maxLimit", 1000);
+
+    public static final long PIPELINE_MAX_BYTES =
+            Long.getLong("bonsai.pipeline.maxBytes", 16L * 1024 * 1024);
+
+    public static final int ADMISSION_QUEUE_SIZE =
+            Integer.getInteger("bonsai.admission.queueSize", 10000);
+
+    public static final String ADMISSION_OVERFLOW =
+            System.getProperty("bonsai.admission.overflow", "queue");
+
     public static final int WRITE_FLUSH_THRESHOLD =
             Integer.getInteger("bonsai.write.flushThreshold", 65536);
 
     public static final int WRITE_FLUSH_INTERVAL_MS =
             Integer.getInteger("bonsai.write.flushInterval", 1);
 
+    public static final int WRITE_FLUSH_MAX_FRAMES =
+            Integer.getInteger("bonsai.write.flushFrames", 256);
+
     public static final int SOCKET_SEND_BUFFER =
             Integer.getInteger("bonsai.socket.sendBuffer", 131072);
 
     public static final int SOCKET_RECEIVE_BUFFER =
             Integer.getInteger("bonsai.socket.receiveBuffer", 131072);
 
+    public static final String SOCKET_PATH =
+            System.getProperty("bonsai.socket.path", "");
+
+    public static final String TRANSPORT =
+            System.getProperty("bonsai.transport", "nio");
+
+    public static final int NIO_THREADS =
+            Integer.getInteger("bonsai.nio.threads", Math.min(2, Runtime.getRuntime().availableProcessors()));
+
     public static final boolean CACHE_ENABLED =
             Boolean.getBoolean("bonsai.cache.enabled");
 
@@ -0,0 +1,262 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking admission for one connection. A request is dispatched right away
+ * while both the {@link ConcurrencyLimiter} window and the in-flight byte limit have room; otherwise the
+ * {@link OverflowPolicy} decides. Queued requests are dispatched in order as
+ * responses free capacity, so no caller ever waits for a permit.
+ * <p>
+ * Frame sizes are only known once encoded, so the byte limit is a soft bound:
+ * it stops admission once reached, the frame that crosses it still goes out.
+ */
+final class AdmissionController {
+
+    enum OverflowPolicy {
+        /** Park the request in a bounded queue, fail once the queue is full. */
+        QUEUE,
+        /** Fail the request immediately. */
+        FAIL_FAST,
+        /** Queue while there is room, then send on the calling thread past the soft limits. */
+        CALLER_RUNS;
+
+        static OverflowPolicy parse(String name) {
+            switch (name.trim().toLowerCase()) {
+                case "fail":
+                case "fail-fast":
+                case "fail_fast":
+                    return FAIL_FAST;
+                case "caller":
+                case "caller-runs":
+                case "caller_runs":
+                    return CALLER_RUNS;
+                default:
+                    return QUEUE;
+            }
+        }
+    }
+
+    private final ConcurrencyLimiter limiter;
+    private final long maxBytes;
+    private final int queueCapacity;
+    private final OverflowPolicy policy;
+    private final Consumer<PendingRequest> dispatcher;
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+    private final AtomicLong inFlightBytes = new AtomicLong(0);
+    private final Queue<PendingRequest> waiting = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waitingCount = new AtomicInteger(0);
+    private final AtomicInteger drainRequests = new AtomicInteger(0);
+    private volatile boolean paused = false;
+
+    AdmissionController(Consumer<PendingRequest> dispatcher) {
+        this(ConcurrencyLimiter.fromConfig(), Config.PIPELINE_MAX_BYTES, Config.ADMISSION_QUEUE_SIZE,
+             OverflowPolicy.parse(Config.ADMISSION_OVERFLOW), dispatcher);
+    }
+
+    AdmissionController(ConcurrencyLimiter limiter, long maxBytes, int queueCapacity, OverflowPolicy policy,
+                        Consumer<PendingRequest> dispatcher) {
+        this.limiter = limiter;
+        this.maxBytes = maxBytes;
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Upper bound of requests that can be in flight at once, including the
+     * headroom {@link OverflowPolicy#CALLER_RUNS} may use.
+     */
+    int hardLimit() {
+        int max = limiter.getMaxLimit();
+        return policy == OverflowPolicy.CALLER_RUNS ? max * 2 : max;
+    }
+
+    void submit(PendingRequest request) {
+        if (paused) {
+            // Reconnecting: hold the request whatever the policy, its deadline bounds the wait
+            if (!offer(request)) {
+                request.completeExceptionally(new RejectedExecutionException(
+                    "Admission queue full (" + queueCapacity + " requests waiting for reconnect)"));
+                return;
+            }
+            drain();
+            return;
+        }
+
+        if (waitingCount.get() == 0 && tryAcquire(limiter.getLimit(), true)) {
+            dispatcher.accept(request);
+            return;
+        }
+
+        switch (policy) {
+            case FAIL_FAST:
+                request.completeExceptionally(new RejectedExecutionException(
+                    "Pipeline full (" + inFlight.get() + " requests, " + inFlightBytes.get() + " bytes in flight)"));
+                return;
+
+            case CALLER_RUNS:
+                if (!offer(request)) {
+                    if (tryAcquire(hardLimit(), false)) {
+                        dispatcher.accept(request);
+                    } else {
+                        request.completeExceptionally(new RejectedExecutionException("Pipeline full"));
+                    }
+                    return;
+                }
+                break;
+
+            default:
+                if (!offer(request)) {
+                    request.completeExceptionally(new RejectedExecutionException(
+                        "Admission queue full (" + queueCapacity + " requests waiting)"));
+                    return;
+                }
+        }
+
+        drain(); // capacity may have been freed between tryAcquire and offer
+    }
+
+    /**
+     * Accounts the encoded size of a dispatched request.
+     */
+    void onWritten(int bytes) {
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the permit of a completed request and dispatches whatever fits now.
+     * {@code rttNanos} feeds the limiter, pass 0 for requests that never got a response.
+     */
+    void release(int bytes, long rttNanos) {
+        if (rttNanos > 0) limiter.onSample(rttNanos, inFlight.get());
+        inFlight.decrementAndGet();
+        if (bytes != 0) inFlightBytes.addAndGet(-bytes);
+        drain();
+    }
+
+    /**
+     * A request ran past its deadline: count it as a drop so the window backs off.
+     */
+    void onTimeout() {
+        limiter.onDropped();
+    }
+
+    /**
+     * Returns the permits of the requests taken off a dead socket, failed or requeued.
+     * Subtracted rather than zeroed: a dispatch racing with the loss still holds its
+     * own permit and releases it itself.
+     */
+    void reset(int permits, long bytes) {
+        limiter.onDropped();
+        inFlight.addAndGet(-permits);
+        if (bytes != 0) inFlightBytes.addAndGet(-bytes);
+        drain();
+    }
+
+    /**
+     * Stops dispatching while the connection is down; submitted requests queue up.
+     */
+    void pause() {
+        paused = true;
+    }
+
+    /**
+     * Dispatches everything held while paused, in order and as the window allows.
+     */
+    void resume() {
+        paused = false;
+        drain();
+    }
+
+    /**
+     * Queues a request that was in flight on a dead socket so it goes out again
+     * after reconnecting. Not bounded by the queue capacity: it was admitted once.
+     */
+    void requeue(PendingRequest request) {
+        waitingCount.incrementAndGet();
+        waiting.offer(request);
+    }
+
+    void failWaiting(Throwable t) {
+        PendingRequest request;
+        while ((request = waiting.poll()) != null) {
+            waitingCount.decrementAndGet();
+            request.completeExceptionally(t);
+        }
+    }
+
+    int getLimit() {
+        return limiter.getLimit();
+    }
+
+    long getMinRttNanos() {
+        return limiter.getMinRttNanos();
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+
+    long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    int getWaiting() {
+        return waitingCount.get();
+    }
+
+    private boolean offer(PendingRequest request) {
+        if (waitingCount.incrementAndGet() > queueCapacity) {
+            waitingCount.decrementAndGet();
+            return false;
+        }
+        waiting.offer(request);
+        return true;
+    }
+
+    /**
+     * Dispatches queued requests while capacity lasts. Only one thread drains at a
+     * time; a dispatch that fails and releases its permit re-arms the loop instead
+     * of recursing into it.
+     */
+    private void drain() {
+        if (drainRequests.getAndIncrement() != 0) return;
+
+        int missed = 1;
+        do {
+            while (!paused && waitingCount.get() > 0 && tryAcquire(limiter.getLimit(), true)) {
+                PendingRequest next = waiting.poll();
+                if (next == null) {
+                    inFlight.decrementAndGet(); // counted but not enqueued yet, its submitter drains again
+                    break;
+                }
+                waitingCount.decrementAndGet();
+
+                if (next.isDone()) {
+                    inFlight.decrementAndGet(); // cancelled while it was waiting
+                    continue;
+                }
+                dispatcher.accept(next);
+            }
+            missed = drainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private boolean tryAcquire(int limit, boolean checkBytes) {
+        if (checkBytes && inFlightBytes.get() >= maxBytes) return false;
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) return false;
+            if (inFlight.compareAndSet(current, current + 1)) return true;
+        }
+    }
+}
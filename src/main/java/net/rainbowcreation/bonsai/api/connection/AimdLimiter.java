@@ -0,0 +1,74 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+/**
+ * Additive-increase / multiplicative-decrease limiter. Every response that comes
+ * back within {@value #TOLERANCE}x of the baseline RTT widens the window by
+ * roughly one request per round trip; a slower one, or a dropped request, cuts it
+ * by {@value #BACKOFF_RATIO}, at most once per round trip so one slow burst does
+ * not collapse the window.
+ */
+final class AimdLimiter implements ConcurrencyLimiter {
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private volatile double limit;
+    private volatile long minRttNanos = 0;
+    private long lastBackoffNanos;
+
+    AimdLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.lastBackoffNanos = System.nanoTime() - Long.MAX_VALUE / 2; // nanoTime may be negative
+    }
+
+    @Override
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public long getMinRttNanos() {
+        return minRttNanos;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight) {
+        if (rttNanos <= 0) return;
+        if (minRttNanos == 0 || rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+        }
+
+        double current = limit;
+        if (rttNanos > minRttNanos * TOLERANCE) {
+            backOff(rttNanos);
+        } else if (inFlight * 2 >= current) {
+            limit = Math.min(maxLimit, current + 1.0 / current);
+        }
+    }
+
+    /**
+     * Drops carry no RTT of their own, so they are spaced by the baseline; before the
+     * first sample every drop cuts.
+     */
+    @Override
+    public synchronized void onDropped() {
+        backOff(minRttNanos);
+    }
+
+    private void backOff(long roundTripNanos) {
+        long now = System.nanoTime();
+        if (now - lastBackoffNanos > roundTripNanos) {
+            lastBackoffNanos = now;
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+
+/**
+ * Decides how many requests one connection may have in flight. Adaptive
+ * implementations move the limit from the round-trip times they observe, so
+ * {@code bonsai.pipeline.max} only has to be a sensible starting point.
+ * <p>
+ * Samples arrive from the connection's reader, one at a time per connection.
+ */
+interface ConcurrencyLimiter {
+
+    int getLimit();
+
+    /**
+     * The largest value {@link #getLimit()} can ever return.
+     */
+    int getMaxLimit();
+
+    /**
+     * Lowest round-trip time seen recently, the no-queueing baseline. 0 if unknown.
+     */
+    long getMinRttNanos();
+
+    /**
+     * @param rttNanos time from writing the request to reading its response
+     * @param inFlight requests outstanding when the response arrived
+     */
+    void onSample(long rttNanos, int inFlight);
+
+    /**
+     * A request was lost (connection failure or timeout): back off.
+     */
+    void onDropped();
+
+    static ConcurrencyLimiter fromConfig() {
+        int initial = Config.PIPELINE_MAX_PENDING;
+        int min = Math.min(Config.PIPELINE_MIN_LIMIT, initial);
+        int max = Math.max(Config.PIPELINE_MAX_LIMIT, initial);
+
+        switch (Config.PIPELINE_LIMITER.toLowerCase()) {
+            case "fixed":
+                return new FixedLimiter(initial);
+            case "aimd":
+                return new AimdLimiter(initial, min, max);
+            default:
+                return new VegasLimiter(initial, min, max);
+        }
+    }
+
+    final class FixedLimiter implements ConcurrencyLimiter {
+        private final int limit;
+
+        FixedLimiter(int limit) {
+            this.limit = limit;
+        }
+
+        @Override public int getLimit() { return limit; }
+        @Override public int getMaxLimit() { return limit; }
+        @Override public long getMinRttNanos() { return 0; }
+        @Override public void onSample(long rttNanos, int inFlight) {}
+        @Override public void onDropped() {}
+    }
+}
@@ -4,10 +4,102 @@ import net.rainbowcreation.bonsai.connection.RequestOp;
 import net.rainbowcreation.bonsai.util.Stoppable;
 
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface Connection extends Stoppable {
     CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags);
 
+    /**
+     * Like {@link #send(RequestOp, short, short, String, byte[], byte)}, but fails with a
+     * {@link java.util.concurrent.TimeoutException} when no answer arrived within
+     * {@code timeoutMillis} ({@code <= 0} waits forever). Transports that cannot
+     * enforce deadlines ignore it.
+     */
+    default CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        return send(op, dbId, tableId, key, payload, flags);
+    }
+
+    /**
+     * Sends a request whose payload is encoded by {@code payload} instead of being
+     * handed over as a finished array. Pipelined transports invoke it straight
+     * against their outbound buffer; others fall back to encoding into a temporary array.
+     */
+    default CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        byte[] bytes = null;
+        if (payload != null) {
+            WireBuffer buffer = new WireBuffer(256);
+            payload.writeTo(buffer);
+            bytes = buffer.toByteArray();
+        }
+        return send(op, dbId, tableId, key, bytes, flags);
+    }
+
+    default CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags, long timeoutMillis) {
+        return sendEncoded(op, dbId, tableId, key, payload, flags);
+    }
+
+    /**
+     * Completes once the features of this connection are known, after which the
+     * {@code supports*} checks answer without waiting. Transports that negotiate
+     * nothing are always ready.
+     */
+    default CompletableFuture<Void> negotiated() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Whether the server behind this connection accepts {@link #sendBatch} frames.
+     */
+    default boolean supportsBatch() {
+        return false;
+    }
+
+    /**
+     * Whether the server behind this connection accepts positional row layouts
+     * when entity schemas are registered.
+     */
+    default boolean supportsRows() {
+        return false;
+    }
+
+    /**
+     * Whether the server behind this connection keeps class dictionaries for mixed-type tables.
+     */
+    default boolean supportsTypeIds() {
+        return false;
+    }
+
+    /**
+     * Sends several operations of database {@code dbId}, encoded by {@code ops},
+     * as one frame and completes with the server's multi-status response.
+     * Fails with {@link UnsupportedOperationException} unless {@link #supportsBatch()}.
+     */
+    default CompletableFuture<byte[]> sendBatch(short dbId, PayloadWriter ops, boolean atomic, long timeoutMillis) {
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new UnsupportedOperationException("Batch frames are not supported by " + getClass().getSimpleName()));
+        return failed;
+    }
+
+    /**
+     * Fire-and-forget write: the server sends no response and the client tracks
+     * nothing, no future and no pipeline permit. Failures are only counted and
+     * reported to the listener set with {@link #setNoReplyErrorListener(Consumer)}.
+     * Transports without noreply support send a normal request and ignore the answer.
+     */
+    default void sendNoReply(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        sendEncoded(op, dbId, tableId, key, payload, flags);
+    }
+
+    default void setNoReplyErrorListener(Consumer<Throwable> listener) {
+    }
+
     default void setInvalidationCallback(InvalidationCallback callback) {
     }
+
+    /**
+     * Receives batched invalidations by table id. Also told to drop a whole
+     * subscribed table after a reconnect, since pushes may have been missed meanwhile.
+     */
+    default void setTableInvalidationCallback(TableInvalidationCallback callback) {
+    }
 }
@@ -7,83 +7,353 @@ import net.rainbowcreation.bonsai.util.Stoppable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
 public class ConnectionPool implements Connection, Stoppable {
 
-    private final List<TcpConnection> connections;
-    private final AtomicInteger roundRobin = new AtomicInteger(0);
+    private final List<PipelinedConnection> connections;
+    private final PipelinedConnection pushConnection; // Carries SUBSCRIBE and its pushes, null if in-band
+    private volatile ConnectionSelector selector = ConnectionSelector.fromConfig();
+    private volatile HedgingPolicy hedging = Config.HEDGE_ENABLED ? new HedgingPolicy() : null;
+    private volatile RetryPolicy retry = Config.IDEMPOTENCY_ENABLED ? new RetryPolicy() : null;
     private final int poolSize;
-    private final AtomicInteger globalId = new AtomicInteger(0);
 
     public ConnectionPool(String host, int port) {
         this(host, port, Config.POOL_SIZE);
     }
 
     public ConnectionPool(String host, int port, int poolSize) {
+        // Blocking transport for pushes on purpose: they are decoded on a reader thread of their own
+        this(poolSize, () -> newConnection(host, port), () -> new TcpConnection(host, port));
+        BonsApi.LOGGER.info("Created pool with " + poolSize + " " + Config.TRANSPORT + " connections to " + host + ":" + port);
+    }
+
+    private ConnectionPool(int poolSize, Supplier<PipelinedConnection> factory, Supplier<PipelinedConnection> pushFactory) {
         this.poolSize = poolSize;
         this.connections = new ArrayList<>(poolSize);
 
         for (int i = 0; i < poolSize; i++) {
-            connections.add(new TcpConnection(host, port, globalId));
+            connections.add(factory.get());
         }
+        this.pushConnection = Config.PUSH_DEDICATED ? pushFactory.get() : null;
+    }
+
+    /**
+     * A pool over the Unix domain socket at {@code path}, for a server on the same host.
+     * Needs Java 21+, see {@link UnixDomainConnection#isSupported()}.
+     */
+    public static ConnectionPool unixDomain(String path) {
+        ConnectionPool pool = new ConnectionPool(Config.POOL_SIZE, () -> new UnixDomainConnection(path), () -> new UnixDomainConnection(path));
+        BonsApi.LOGGER.info("Created pool with " + Config.POOL_SIZE + " unix domain connections to " + path);
+        return pool;
+    }
 
-        BonsApi.LOGGER.info("Created pool with " + poolSize + " connections to " + host + ":" + port);
+    private static PipelinedConnection newConnection(String host, int port) {
+        if ("blocking".equalsIgnoreCase(Config.TRANSPORT)) {
+            return new TcpConnection(host, port);
+        }
+        return new NioConnection(host, port);
     }
 
-    public TcpConnection acquire() {
-        int idx = Math.abs(roundRobin.getAndIncrement() % poolSize);
-        TcpConnection conn = connections.get(idx);
+    public PipelinedConnection acquire() {
+        return acquire(null, (short) 0, null);
+    }
 
-        if (conn.getPendingCount() > Config.PIPELINE_MAX_PENDING / 2) {
-            int minPending = conn.getPendingCount();
-            TcpConnection best = conn;
+    public PipelinedConnection acquire(RequestOp op, short tableId, String key) {
+        return selector.select(connections, op, tableId, key);
+    }
 
-            for (TcpConnection c : connections) {
-                int pending = c.getPendingCount();
-                if (pending < minPending) {
-                    minPending = pending;
-                    best = c;
-                }
-            }
-            return best;
-        }
+    public ConnectionSelector getSelector() {
+        return selector;
+    }
 
-        return conn;
+    /**
+     * Swaps the strategy used to pick a connection for each request.
+     */
+    public void setSelector(ConnectionSelector selector) {
+        this.selector = Objects.requireNonNull(selector, "selector");
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedging;
+    }
+
+    /**
+     * Enables hedged reads with the given policy, or disables them with null.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedging) {
+        this.hedging = hedging;
     }
 
     @Override
     public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags) {
-        return acquire().send(op, dbId, tableId, key, payload, flags);
+        return send(op, dbId, tableId, key, payload, flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retry;
+    }
+
+    /**
+     * Retries tokened writes with the given policy, or disables retries with null.
+     * Only takes effect while {@code bonsai.idempotency} is on, and only for attempts
+     * sent to a server that negotiated tokens: without a token a resent write could
+     * be applied twice.
+     */
+    public void setRetryPolicy(RetryPolicy retry) {
+        this.retry = retry;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        if (retry != null && isRetriedWrite(op)) {
+            return sendEncoded(op, dbId, tableId, key, PayloadWriter.of(payload), flags, timeoutMillis);
+        }
+        if (op == RequestOp.SUBSCRIBE && pushConnection != null) {
+            return pushConnection.send(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+        PipelinedConnection conn = acquire(op, tableId, key);
+        HedgingPolicy policy = hedging;
+        if (policy == null || !shouldHedge(op, key)) {
+            return conn.send(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+        return policy.execute(conn, c -> c.send(op, dbId, tableId, key, payload, flags, timeoutMillis), () -> alternativeTo(conn));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        return sendEncoded(op, dbId, tableId, key, payload, flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags, long timeoutMillis) {
+        RetryPolicy retryPolicy = retry;
+        if (retryPolicy != null && isRetriedWrite(op)) {
+            // One token for every attempt. Each attempt asks the selector again, which moves off a dead
+            // connection only where the selector does; key affinity keeps a key's writes on its owner,
+            // even while it reconnects, so retries wait in that connection's queue to keep per-key order
+            IdempotencyToken token = IdempotencyToken.random();
+            AtomicBoolean untokened = new AtomicBoolean(); // Some attempt went to a server that drops tokens
+            return retryPolicy.execute(timeoutMillis, left -> {
+                PipelinedConnection conn = acquire(op, tableId, key);
+                if (!conn.supportsIdempotency()) untokened.set(true);
+                return conn.sendEncoded(op, dbId, tableId, key, payload, flags, left, token);
+            }, () -> !untokened.get());
+        }
+        if (op == RequestOp.SUBSCRIBE && pushConnection != null) {
+            return pushConnection.sendEncoded(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+        PipelinedConnection conn = acquire(op, tableId, key);
+        HedgingPolicy policy = hedging;
+        if (policy == null || !shouldHedge(op, key)) {
+            return conn.sendEncoded(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+        return policy.execute(conn, c -> c.sendEncoded(op, dbId, tableId, key, payload, flags, timeoutMillis), () -> alternativeTo(conn));
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return allNegotiated(PipelinedConnection::supportsBatch);
+    }
+
+    @Override
+    public boolean supportsRows() {
+        return allNegotiated(PipelinedConnection::supportsRows);
+    }
+
+    @Override
+    public boolean supportsTypeIds() {
+        return allNegotiated(PipelinedConnection::supportsTypeIds);
+    }
+
+    /**
+     * A feature is usable only if every member that negotiated has it, since any of
+     * them may carry the request: the connected members, or while all are down, those
+     * that negotiated before. Until some member has connected once, this waits for the
+     * first handshake, bounded by the request timeout.
+     */
+    private boolean allNegotiated(Predicate<PipelinedConnection> feature) {
+        awaitFirstHandshake();
+
+        boolean anyConnected = false;
+        for (PipelinedConnection c : connections) anyConnected |= c.isConnected();
+
+        boolean any = false;
+        for (PipelinedConnection c : connections) {
+            if (anyConnected ? !c.isConnected() : !c.firstConnect().isDone()) continue;
+            if (!feature.test(c)) return false;
+            any = true;
+        }
+        return any;
+    }
+
+    private void awaitFirstHandshake() {
+        try {
+            negotiated().get(Config.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Still down: nothing was negotiated, so nothing is supported
+        }
+    }
+
+    /**
+     * Completes with the first handshake of any member, or after the request timeout
+     * when none connects; never exceptionally.
+     */
+    @Override
+    public CompletableFuture<Void> negotiated() {
+        CompletableFuture<?>[] handshakes = new CompletableFuture<?>[connections.size()];
+        for (int i = 0; i < handshakes.length; i++) {
+            handshakes[i] = connections.get(i).firstConnect();
+            if (handshakes[i].isDone()) return CompletableFuture.completedFuture(null);
+        }
+        for (PipelinedConnection c : connections) c.ensureConnecting();
+
+        CompletableFuture<Void> negotiated = new CompletableFuture<>();
+        CompletableFuture.anyOf(handshakes).whenComplete((v, ex) -> negotiated.complete(null));
+        if (Config.REQUEST_TIMEOUT_MS > 0) {
+            TimerWheel.Timeout timeout = TimerWheel.shared().schedule(() -> negotiated.complete(null), Config.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            negotiated.whenComplete((v, ex) -> timeout.cancel());
+        }
+        return negotiated;
+    }
+
+    /**
+     * Never hedged or retried: a batch may mix reads and writes.
+     */
+    @Override
+    public CompletableFuture<byte[]> sendBatch(short dbId, PayloadWriter ops, boolean atomic, long timeoutMillis) {
+        return acquire().sendBatch(dbId, ops, atomic, timeoutMillis);
+    }
+
+    @Override
+    public void sendNoReply(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        acquire(op, tableId, key).sendNoReply(op, dbId, tableId, key, payload, flags);
+    }
+
+    private boolean isRetriedWrite(RequestOp op) {
+        return Config.IDEMPOTENCY_ENABLED && IdempotencyToken.appliesTo(op);
+    }
+
+    private boolean shouldHedge(RequestOp op, String key) {
+        if (poolSize < 2 || !HedgingPolicy.isHedgeable(op)) return false;
+        // A hedge on another socket could overtake a write the affinity owner has not answered yet
+        return !(selector instanceof KeyAffinitySelector) || key == null || key.isEmpty();
+    }
+
+    /**
+     * The least loaded connection other than {@code busy}, null if none is connected.
+     */
+    private PipelinedConnection alternativeTo(PipelinedConnection busy) {
+        PipelinedConnection best = null;
+        for (PipelinedConnection c : connections) {
+            if (c == busy || !c.isConnected()) continue;
+            if (best == null || c.getPendingCount() < best.getPendingCount()) best = c;
+        }
+        return best;
+    }
+
+    @Override
+    public void setNoReplyErrorListener(Consumer<Throwable> listener) {
+        for (PipelinedConnection conn : connections) {
+            conn.setNoReplyErrorListener(listener);
+        }
+    }
+
+    public long getNoReplyErrorCount() {
+        long total = 0;
+        for (PipelinedConnection conn : connections) {
+            total += conn.getNoReplyErrorCount();
+        }
+        return total;
     }
 
+    /**
+     * Also installed on the request connections: servers that predate the push
+     * connection may still push there.
+     */
     @Override
     public void setInvalidationCallback(InvalidationCallback callback) {
-        for (TcpConnection conn : connections) {
+        for (PipelinedConnection conn : connections) {
             conn.setInvalidationCallback(callback);
         }
+        if (pushConnection != null) pushConnection.setInvalidationCallback(callback);
+    }
+
+    @Override
+    public void setTableInvalidationCallback(TableInvalidationCallback callback) {
+        for (PipelinedConnection conn : connections) {
+            conn.setTableInvalidationCallback(callback);
+        }
+        if (pushConnection != null) pushConnection.setTableInvalidationCallback(callback);
     }
 
     @Override
     public void stop() {
-        for (TcpConnection conn : connections) {
+        for (PipelinedConnection conn : connections) {
             conn.stop();
         }
+        if (pushConnection != null) pushConnection.stop();
     }
 
     public int getTotalPendingCount() {
         int total = 0;
-        for (TcpConnection conn : connections) {
+        for (PipelinedConnection conn : connections) {
             total += conn.getPendingCount();
         }
         return total;
     }
 
+    /**
+     * Socket writes per second across the pool, over the last one-second window.
+     */
+    public double getFlushesPerSecond() {
+        double total = 0;
+        for (PipelinedConnection conn : connections) {
+            total += conn.getFlushStats().getFlushesPerSecond();
+        }
+        return total;
+    }
+
+    /**
+     * Average number of request frames carried by one socket write.
+     */
+    public double getFramesPerFlush() {
+        long flushes = 0;
+        long frames = 0;
+        for (PipelinedConnection conn : connections) {
+            flushes += conn.getFlushStats().getFlushCount();
+            frames += conn.getFlushStats().getFrameCount();
+        }
+        return flushes == 0 ? 0 : (double) frames / flushes;
+    }
+
     public String getStats() {
-        StringBuilder sb = new StringBuilder("ConnectionPool[");
+        StringBuilder sb = new StringBuilder("ConnectionPool[").append(selector.name()).append(": ");
         for (int i = 0; i < connections.size(); i++) {
             if (i > 0) sb.append(", ");
-            sb.append("c").append(i).append("=").append(connections.get(i).getPendingCount());
+            PipelinedConnection conn = connections.get(i);
+            sb.append("c").append(i).append("=").append(conn.getPendingCount())
+              .append("/").append(conn.getConcurrencyLimit())
+              .append(String.format("@%.2fms", conn.getRttNanos() / 1_000_000.0));
+            if (!conn.isConnected()) sb.append(conn.isReconnecting() ? "(reconnecting)" : "(down)");
+        }
+        if (pushConnection != null) {
+            sb.append(", push=").append(pushConnection.isConnected() ? "up" : pushConnection.isReconnecting() ? "reconnecting" : "down");
+        }
+        sb.append(String.format(", flushes/s=%.1f, frames/flush=%.2f", getFlushesPerSecond(), getFramesPerFlush()));
+        HedgingPolicy policy = hedging;
+        if (policy != null) {
+            sb.append(", hedges=").append(policy.getHedgesSent()).append(" won=").append(policy.getHedgesWon());
+        }
+        RetryPolicy retryPolicy = retry;
+        if (retryPolicy != null) {
+            sb.append(", retries=").append(retryPolicy.getRetries());
         }
         sb.append("]");
         return sb.toString();
@@ -0,0 +1,30 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.List;
+
+/**
+ * Picks the pooled connection a request goes out on.
+ * Selected with {@code -Dbonsai.pool.selector} or {@link ConnectionPool#setSelector}.
+ */
+public interface ConnectionSelector {
+
+    PipelinedConnection select(List<PipelinedConnection> connections, RequestOp op, short tableId, String key);
+
+    String name();
+
+    static ConnectionSelector fromConfig() {
+        ConnectionSelector selector;
+        switch (Config.POOL_SELECTOR.toLowerCase()) {
+            case "round-robin":
+            case "roundrobin":
+                selector = new RoundRobinSelector();
+                break;
+            default:
+                selector = new PowerOfTwoChoicesSelector();
+        }
+        return Config.POOL_KEY_AFFINITY ? new KeyAffinitySelector(selector) : selector;
+    }
+}
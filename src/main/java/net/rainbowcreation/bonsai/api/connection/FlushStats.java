@@ -0,0 +1,57 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the outbound write path: how often the buffer hits the socket
+ * and how many frames each {@code write()} carries.
+ */
+public class FlushStats {
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    private long windowStartNanos = System.nanoTime();
+    private long windowStartFlushes = 0;
+    private double flushesPerSecond = 0;
+
+    public void record(int frameCount, int byteCount) {
+        flushes.increment();
+        frames.add(frameCount);
+        bytes.add(byteCount);
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getFrameCount() {
+        return frames.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    public double getFramesPerFlush() {
+        long f = flushes.sum();
+        return f == 0 ? 0 : (double) frames.sum() / f;
+    }
+
+    /**
+     * Flush rate over the last completed window of at least one second.
+     */
+    public synchronized double getFlushesPerSecond() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            long total = flushes.sum();
+            flushesPerSecond = (total - windowStartFlushes) * 1_000_000_000.0 / elapsed;
+            windowStartFlushes = total;
+            windowStartNanos = now;
+        }
+        return flushesPerSecond;
+    }
+}
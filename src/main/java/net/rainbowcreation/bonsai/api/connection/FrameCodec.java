@@ -0,0 +1,256 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.BonsaiRequest;
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.io.DataInput;
+import java.io.IOException;
+
+/**
+ * Writes length-prefixed request frames straight into a {@link WireBuffer}, in
+ * the format the connection negotiated at connect time.
+ * <p>
+ * {@link #PROTOCOL_V1} frames are {@code len(4) + header + payloadLen(4) + payload}.
+ * The header is produced by {@link BonsaiRequest} itself so the layout stays in
+ * lock-step with the server; only the payload is encoded in place and its length back-patched.
+ * <p>
+ * {@link #PROTOCOL_V2} frames are compact:
+ * {@code len(varint) id(varint) op(1) flags(1) db(varint) table(varint) keyLen(varint) key payload},
+ * where the payload runs to the end of the frame. Responses are
+ * {@code len(varint) id(varint) statusClass(1) body}; see {@link #status(int)}.
+ * <p>
+ * With {@code bonsai.deadline.propagate} and a server that advertised
+ * {@link #FEATURE_DEADLINE}, the request's absolute deadline (epoch millis) is
+ * prefixed to the payload, ahead of any TTL, and flagged with {@link #FLAG_DEADLINE}
+ * so the server can skip work nobody is waiting for.
+ * A write's {@link IdempotencyToken} follows as 16 bytes under {@link #FLAG_IDEMPOTENT},
+ * only to servers that advertised {@link #FEATURE_IDEMPOTENCY}; others would store it as
+ * part of the value.
+ * <p>
+ * {@link #FLAG_NOREPLY} frames are sent with id 0, which is never handed out to
+ * tracked requests, and only to servers that advertised {@link #FEATURE_NOREPLY}.
+ * The server stays silent unless they fail, and then answers with id 0 and a body of
+ * {@code dbId(2) tableId(2) keyLen(2) key message}, so the client can drop that key.
+ * <p>
+ * A {@link #FLAG_BATCH} frame is an MGET whose payload packs several operations of
+ * one database; {@link #FLAG_ATOMIC} asks the server to apply them all or none.
+ * Only sent to servers that advertised {@link #FEATURE_BATCH}.
+ * <p>
+ * With {@link #FEATURE_COMPRESSION}, v2 payloads of at least
+ * {@code bonsai.compression.threshold} bytes are sent as {@code rawLen(varint) + LZ4 block}
+ * when that is smaller, marked by {@link #OP_COMPRESSED} on the op byte. The server
+ * marks compressed response bodies the same way with {@link #STATUS_COMPRESSED}.
+ * <p>
+ * With {@link #FEATURE_PUSH_BATCH} the server may invalidate many keys of one table
+ * in a single push, {@code dbId(2) tableId(2) count(4) [keyLen(2) key]*}, where a count
+ * of 0 drops the whole table. It arrives with id {@link #PUSH_BATCH_ID} in v1 and
+ * status class {@link #STATUS_CLASS_PUSH_BATCH} in v2.
+ * <p>
+ * {@link #FEATURE_ROWS} lets entity tables register a positional row layout with
+ * their schema and exchange values as rows of that layout instead of field-name maps.
+ * {@link #FEATURE_TYPE_IDS} lets mixed-type tables prefix values with a class id from a
+ * dictionary the server keeps per table, instead of the full class name.
+ */
+public final class FrameCodec {
+    public static final byte FLAG_DEADLINE = 0x04;
+    public static final byte FLAG_IDEMPOTENT = 0x08;
+    public static final byte FLAG_NOREPLY = 0x10;
+    public static final byte FLAG_HELLO = 0x20;
+    public static final byte FLAG_BATCH = 0x40;
+    public static final byte FLAG_ATOMIC = (byte) 0x80;
+
+    /** Feature bits exchanged in the handshake, after the version. */
+    public static final int FEATURE_BATCH = 0x01;
+    public static final int FEATURE_COMPRESSION = 0x02;
+    public static final int FEATURE_PUSH_BATCH = 0x04;
+    public static final int FEATURE_ROWS = 0x08;
+    public static final int FEATURE_TYPE_IDS = 0x10;
+    public static final int FEATURE_NOREPLY = 0x20;
+    public static final int FEATURE_IDEMPOTENCY = 0x40;
+    public static final int FEATURE_DEADLINE = 0x80;
+
+    /** v2 only: set on the op byte of a request whose payload is compressed. */
+    public static final int OP_COMPRESSED = 0x80;
+    /** v2 only: set on the status class of a response whose body is compressed. */
+    public static final int STATUS_COMPRESSED = 0x40;
+
+    public static final int PROTOCOL_V1 = 1;
+    public static final int PROTOCOL_V2 = 2;
+
+    /** Request id of noreply frames and of the error responses they may trigger. */
+    public static final int NOREPLY_ID = 0;
+    /** Request id of the handshake, sent before any other request. */
+    public static final int HELLO_ID = -2;
+    /** "BNSH", opens the hello payload and the server's acknowledgement. */
+    public static final int HELLO_MAGIC = 0x424E5348;
+
+    /** v2 status class of server pushes; their body is the push in v1 request encoding. */
+    public static final int STATUS_CLASS_PUSH = 0xFF;
+    /** v2 status class of batched invalidation pushes. */
+    public static final int STATUS_CLASS_PUSH_BATCH = 0xFE;
+    /** v1 response id of batched invalidation pushes; single pushes use -1. */
+    public static final int PUSH_BATCH_ID = -3;
+
+    private static final int MAX_VARINT = 5;
+
+    private FrameCodec() {}
+
+    /**
+     * @param features what the connection negotiated; decides compression, deadline and token
+     */
+    static void writeRequest(WireBuffer out, PendingRequest request, int version, int features) {
+        boolean compress = version == PROTOCOL_V2 && (features & FEATURE_COMPRESSION) != 0;
+        boolean deadline = (features & FEATURE_DEADLINE) != 0 && request.deadlineMillis > 0;
+        IdempotencyToken token = (features & FEATURE_IDEMPOTENCY) != 0 ? request.token : null;
+        byte flags = request.flags;
+        if (deadline) flags |= FLAG_DEADLINE;
+        if (token != null) flags |= FLAG_IDEMPOTENT;
+
+        int frameStart = out.position();
+        int payloadStart = writeHeader(out, version, request.id, request.op, flags, request.dbId, request.tableId, request.key);
+        if (deadline) out.putLong(request.deadlineMillis);
+        if (token != null) {
+            out.putLong(token.mostSigBits);
+            out.putLong(token.leastSigBits);
+        }
+        if (request.payload != null) request.payload.writeTo(out);
+        if (compress) compressPayload(out, frameStart + MAX_VARINT + WireBuffer.varIntSize(request.id), payloadStart);
+        finish(out, version, frameStart, payloadStart);
+    }
+
+    static void writeNoReply(WireBuffer out, int version, boolean compress, RequestOp op, byte flags, short dbId, short tableId, String key, PayloadWriter payload) {
+        int frameStart = out.position();
+        int payloadStart = writeHeader(out, version, NOREPLY_ID, op, (byte) (flags | FLAG_NOREPLY), dbId, tableId, key);
+        if (payload != null) payload.writeTo(out);
+        if (compress) compressPayload(out, frameStart + MAX_VARINT + WireBuffer.varIntSize(NOREPLY_ID), payloadStart);
+        finish(out, version, frameStart, payloadStart);
+    }
+
+    /**
+     * Replaces the v2 payload just written with its compressed form, unless it is
+     * below the threshold or would not shrink by at least 1/16.
+     */
+    private static void compressPayload(WireBuffer out, int opAt, int payloadStart) {
+        int rawLen = out.position() - payloadStart;
+        if (rawLen < Config.COMPRESSION_THRESHOLD) return;
+
+        Lz4 lz4 = Lz4.local();
+        int compressedLen = lz4.compress(out.array(), payloadStart, rawLen);
+        if (WireBuffer.varIntSize(rawLen) + compressedLen > rawLen - (rawLen >>> 4)) return;
+
+        out.position(payloadStart);
+        out.putVarInt(rawLen);
+        out.putBytes(lz4.output(), 0, compressedLen);
+        out.array()[opAt] |= (byte) OP_COMPRESSED;
+    }
+
+    /**
+     * Inflates a compressed v2 response body, {@code rawLen(varint) + LZ4 block}, straight
+     * into the array the request completes with, so it costs no more allocation than
+     * an uncompressed body.
+     */
+    static byte[] decompress(byte[] buf, int off, int end) {
+        long rawLen = peekVarInt(buf, off, end);
+        if (rawLen < 0) throw new IllegalStateException("Truncated compressed frame");
+        int p = off + (int) (rawLen >>> 32);
+        int len = (int) rawLen;
+        if (len < 0 || (long) len > (long) (end - p) * 255 + 16) throw new IllegalStateException("Malformed compressed frame");
+
+        byte[] body = new byte[len];
+        Lz4.decompress(buf, p, end - p, body, 0, len);
+        return body;
+    }
+
+    /**
+     * The handshake travels as a v1 GET on the reserved table id -1, so a server
+     * that predates it answers with an ordinary miss or error instead of dropping
+     * the connection.
+     */
+    static void writeHello(WireBuffer out, PayloadWriter payload) {
+        int frameStart = out.position();
+        int payloadStart = writeHeader(out, PROTOCOL_V1, HELLO_ID, RequestOp.GET, FLAG_HELLO, (short) -1, (short) -1, "");
+        payload.writeTo(out);
+        finish(out, PROTOCOL_V1, frameStart, payloadStart);
+    }
+
+    /**
+     * Writes the frame length placeholder and the header, returns where the payload starts.
+     */
+    private static int writeHeader(WireBuffer out, int version, int id, RequestOp op, byte flags, short dbId, short tableId, String key) {
+        if (version == PROTOCOL_V2) {
+            int keyLen = key == null ? 0 : WireBuffer.utf8Length(key);
+            out.ensure(MAX_VARINT * 5 + 2 + keyLen);
+            out.position(out.position() + MAX_VARINT); // length is back-patched, the frame slid down to fit
+            out.putVarInt(id);
+            out.putByte(op.getByte());
+            out.putByte(flags);
+            out.putVarInt(dbId & 0xFFFF);
+            out.putVarInt(tableId & 0xFFFF);
+            out.putVarInt(keyLen);
+            if (key != null) out.putUtf8(key);
+            return out.position();
+        }
+
+        BonsaiRequest header = new BonsaiRequest(op, dbId, tableId, key, null, flags);
+        header.id = id;
+        int headerLen = header.getSerializedSize();
+
+        out.ensure(4 + headerLen);
+        out.putInt(0);
+        out.position(out.position() + header.writeTo(out.array(), out.position()));
+        return out.position();
+    }
+
+    private static void finish(WireBuffer out, int version, int frameStart, int payloadStart) {
+        if (version == PROTOCOL_V2) {
+            int bodyStart = frameStart + MAX_VARINT;
+            int len = out.position() - bodyStart;
+            int lenBytes = WireBuffer.varIntSize(len);
+            byte[] buf = out.array();
+            System.arraycopy(buf, bodyStart, buf, frameStart + lenBytes, len);
+            out.position(frameStart);
+            out.putVarInt(len);
+            out.position(frameStart + lenBytes + len);
+            return;
+        }
+
+        // v1: the header ends with the 4-byte payload length
+        int payloadLen = out.position() - payloadStart;
+        out.putIntAt(payloadStart - 4, payloadLen);
+        out.putIntAt(frameStart, out.position() - frameStart - 4);
+    }
+
+    /**
+     * Decodes the varint at {@code off} without reading past {@code limit}.
+     *
+     * @return {@code (size << 32) | value}, or -1 if the varint is incomplete
+     */
+    static long peekVarInt(byte[] buf, int off, int limit) {
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT; i++) {
+            if (off + i >= limit) return -1;
+            byte b = buf[off + i];
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) return ((long) (i + 1) << 32) | (value & 0xFFFFFFFFL);
+        }
+        throw new IllegalStateException("Malformed varint");
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int i = 0; i < MAX_VARINT; i++) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << (7 * i);
+            if (b >= 0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Maps a v2 status class back to a status code: 0 is 200, {@code n} is {@code n * 100}.
+     */
+    static int status(int statusClass) {
+        return statusClass == 0 ? 200 : statusClass * 100;
+    }
+}
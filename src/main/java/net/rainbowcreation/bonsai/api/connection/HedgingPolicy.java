@@ -0,0 +1,242 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Hedged reads for a {@link ConnectionPool}. An idempotent read that has not been
+ * answered after the configured latency percentile is sent again on another
+ * connection; whichever reply arrives first completes the caller's future and
+ * the other attempt is cancelled, which frees its pipeline slot right away.
+ * <p>
+ * Hedges are paid from a token budget: every eligible request earns
+ * {@code bonsai.hedge.budget} percent of a hedge, so extra load stays bounded
+ * even when the whole server slows down.
+ */
+public class HedgingPolicy {
+    private static final int SAMPLE_COUNT = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final long RECOMPUTE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long TOKEN = 1000;
+    private static final long MAX_TOKENS = 100 * TOKEN;
+
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long tokensPerRequest;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLE_COUNT);
+    private final AtomicInteger sampleIndex = new AtomicInteger(0);
+    private volatile long delayNanos = -1;
+    private volatile long delayComputedAt;
+
+    private final AtomicLong tokens = new AtomicLong(0);
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    public HedgingPolicy() {
+        this(Config.HEDGE_PERCENTILE, TimeUnit.MICROSECONDS.toNanos(Config.HEDGE_MIN_DELAY_MICROS), Config.HEDGE_BUDGET_PERCENT);
+    }
+
+    public HedgingPolicy(double percentile, long minDelayNanos, int budgetPercent) {
+        this.percentile = percentile;
+        this.minDelayNanos = minDelayNanos;
+        this.tokensPerRequest = TOKEN * budgetPercent / 100;
+    }
+
+    public static boolean isHedgeable(RequestOp op) {
+        return op == RequestOp.GET || op == RequestOp.MGET || op == RequestOp.EXISTS ||
+               op == RequestOp.QUERY_GET || op == RequestOp.QUERY_COUNT;
+    }
+
+    /**
+     * Runs {@code attempt} on {@code primary} and, if it is still outstanding after
+     * the hedge delay, once more on the connection {@code alternative} picks.
+     */
+    CompletableFuture<byte[]> execute(PipelinedConnection primary,
+                                      Function<PipelinedConnection, CompletableFuture<byte[]>> attempt,
+                                      Supplier<PipelinedConnection> alternative) {
+        earn();
+        HedgedCall call = new HedgedCall(attempt, alternative);
+        call.start(primary);
+        return call;
+    }
+
+    public long getHedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    /**
+     * Current hedge delay in nanoseconds, -1 while too few samples were seen.
+     */
+    public long getDelayNanos() {
+        long now = System.nanoTime();
+        if (now - delayComputedAt > RECOMPUTE_NANOS) {
+            delayComputedAt = now;
+            delayNanos = computeDelay();
+        }
+        return delayNanos;
+    }
+
+    private long computeDelay() {
+        int seen = Math.min(sampleIndex.get(), SAMPLE_COUNT);
+        if (seen < MIN_SAMPLES) return -1;
+
+        long[] sorted = new long[seen];
+        for (int i = 0; i < seen; i++) sorted[i] = samples.get(i);
+        Arrays.sort(sorted);
+
+        int rank = (int) Math.ceil(percentile / 100.0 * seen) - 1;
+        return Math.max(minDelayNanos, sorted[Math.max(0, Math.min(seen - 1, rank))]);
+    }
+
+    private void record(long nanos) {
+        samples.set(sampleIndex.getAndIncrement() & (SAMPLE_COUNT - 1), nanos);
+    }
+
+    private void earn() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current >= MAX_TOKENS) return;
+        } while (!tokens.compareAndSet(current, Math.min(MAX_TOKENS, current + tokensPerRequest)));
+    }
+
+    private boolean spend() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current < TOKEN) return false;
+        } while (!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+
+    private final class HedgedCall extends CompletableFuture<byte[]> {
+        private final Function<PipelinedConnection, CompletableFuture<byte[]>> attempt;
+        private final Supplier<PipelinedConnection> alternative;
+
+        // Guarded by this
+        private CompletableFuture<byte[]> primary;
+        private CompletableFuture<byte[]> hedge;
+        private int attempts;
+        private int failures;
+        private TimerWheel.Timeout timer;
+
+        HedgedCall(Function<PipelinedConnection, CompletableFuture<byte[]>> attempt, Supplier<PipelinedConnection> alternative) {
+            this.attempt = attempt;
+            this.alternative = alternative;
+        }
+
+        void start(PipelinedConnection conn) {
+            synchronized (this) {
+                attempts = 1;
+            }
+            long start = System.nanoTime();
+            CompletableFuture<byte[]> first = attempt.apply(conn);
+            synchronized (this) {
+                primary = first;
+            }
+            first.whenComplete((body, ex) -> {
+                if (ex == null) record(System.nanoTime() - start);
+                onResult(first, body, ex);
+            });
+
+            long delay = getDelayNanos();
+            if (delay > 0 && !isDone()) {
+                TimerWheel.Timeout scheduled = TimerWheel.shared().schedule(this::submitHedge, delay, TimeUnit.NANOSECONDS);
+                synchronized (this) {
+                    timer = scheduled;
+                }
+                if (isDone()) scheduled.cancel();
+            }
+        }
+
+        /**
+         * Runs on the shared timer thread, which must never wait on a socket or a
+         * pipeline permit, so the hedge is sent from the worker pool.
+         */
+        private void submitHedge() {
+            if (isDone()) return;
+            try {
+                BonsApi.WORKER_POOL.execute(this::fireHedge);
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the primary attempt still answers or times out
+            }
+        }
+
+        private void fireHedge() {
+            synchronized (this) {
+                if (isDone() || !spend()) return;
+                attempts++;
+            }
+
+            PipelinedConnection target = alternative.get();
+            if (target == null) {
+                synchronized (this) {
+                    attempts--;
+                }
+                return;
+            }
+
+            hedgesSent.increment();
+            CompletableFuture<byte[]> second = attempt.apply(target);
+            synchronized (this) {
+                hedge = second;
+            }
+            second.whenComplete((body, ex) -> onResult(second, body, ex));
+            if (isDone()) second.cancel(false);
+        }
+
+        private void onResult(CompletableFuture<byte[]> from, byte[] body, Throwable ex) {
+            if (ex == null) {
+                if (complete(body)) {
+                    boolean won;
+                    synchronized (this) {
+                        won = from == hedge;
+                    }
+                    if (won) hedgesWon.increment();
+                    cancelAttempts(from);
+                }
+                return;
+            }
+
+            synchronized (this) {
+                if (++failures < attempts) return; // the other attempt may still answer
+            }
+            if (completeExceptionally(ex)) cancelAttempts(from);
+        }
+
+        private void cancelAttempts(CompletableFuture<byte[]> keep) {
+            CompletableFuture<byte[]> a, b;
+            TimerWheel.Timeout t;
+            synchronized (this) {
+                a = primary;
+                b = hedge;
+                t = timer;
+            }
+            if (t != null) t.cancel();
+            if (a != null && a != keep) a.cancel(false);
+            if (b != null && b != keep) b.cancel(false);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) cancelAttempts(null);
+            return cancelled;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Client-generated 128-bit id of one logical write. Every resend of the write
+ * carries the same token, so a server that already applied it can answer from
+ * its dedup table instead of applying it twice.
+ */
+public final class IdempotencyToken {
+    public final long mostSigBits;
+    public final long leastSigBits;
+
+    public IdempotencyToken(long mostSigBits, long leastSigBits) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+    }
+
+    public static IdempotencyToken random() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new IdempotencyToken(random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * Ops that change state and therefore need a token to be retried safely.
+     */
+    public static boolean appliesTo(RequestOp op) {
+        return op == RequestOp.SET || op == RequestOp.DELETE ||
+               op == RequestOp.QUERY_UPDATE || op == RequestOp.QUERY_DELETE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IdempotencyToken)) return false;
+        IdempotencyToken other = (IdempotencyToken) o;
+        return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = mostSigBits ^ leastSigBits;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", mostSigBits, leastSigBits);
+    }
+}
@@ -0,0 +1,52 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.List;
+
+/**
+ * Routes every single-key operation of a table to the same connection, chosen by
+ * hashing the table id and key. Requests on one connection are written and
+ * answered in order, so a SET followed by a GET of the same key can no longer be
+ * reordered, and back-to-back writes to a key end up in the same write buffer.
+ * <p>
+ * Keyless operations (MGET, queries, schema registration) go to the delegate,
+ * which keeps load balancing them.
+ */
+public class KeyAffinitySelector implements ConnectionSelector {
+    private final ConnectionSelector delegate;
+
+    public KeyAffinitySelector(ConnectionSelector delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public PipelinedConnection select(List<PipelinedConnection> connections, RequestOp op, short tableId, String key) {
+        if (key == null || key.isEmpty() || !isKeyed(op)) {
+            return delegate.select(connections, op, tableId, key);
+        }
+
+        // Stay on the owner even while it reconnects: moving would break per-key order
+        return connections.get(Math.floorMod(spread(key.hashCode() * 31 + tableId), connections.size()));
+    }
+
+    private static boolean isKeyed(RequestOp op) {
+        return op == RequestOp.GET || op == RequestOp.SET || op == RequestOp.DELETE || op == RequestOp.EXISTS;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    public ConnectionSelector getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String name() {
+        return "key-affinity+" + delegate.name();
+    }
+}
@@ -0,0 +1,213 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.util.Arrays;
+
+/**
+ * Pure Java codec for the LZ4 block format, so frames can be compressed without
+ * a native library. The compressor is the single-pass greedy variant: one hash
+ * probe per position, skipping ahead faster through data that does not compress.
+ * <p>
+ * Compression state is kept per thread and reused, so once warm a frame costs
+ * no allocation beyond its output.
+ */
+final class Lz4 {
+    private static final int MIN_MATCH = 4;
+    private static final int MF_LIMIT = 12;     // A match must start this far before the end
+    private static final int LAST_LITERALS = 5; // The block always ends with this many literals
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final int MAX_RETAINED_SCRATCH = 1 << 20;
+
+    private static final ThreadLocal<Lz4> LOCAL = ThreadLocal.withInitial(Lz4::new);
+
+    private final int[] table = new int[1 << HASH_LOG]; // Position + 1 of the last sequence per hash, 0 if none
+    private byte[] scratch = new byte[8192];
+    private byte[] output; // Buffer the last compress() wrote to
+
+    private Lz4() {}
+
+    static Lz4 local() {
+        return LOCAL.get();
+    }
+
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[off, off + len)} into this thread's scratch buffer.
+     *
+     * @return the compressed length; the bytes are in {@link #output()} until the next call on this thread
+     */
+    int compress(byte[] src, int off, int len) {
+        int max = maxCompressedLength(len);
+        if (scratch.length < max) {
+            output = new byte[max];
+            if (max <= MAX_RETAINED_SCRATCH) scratch = output;
+        } else {
+            output = scratch;
+        }
+        return compress(src, off, len, output);
+    }
+
+    byte[] output() {
+        return output;
+    }
+
+    private int compress(byte[] src, int off, int len, byte[] dst) {
+        int end = off + len;
+        int anchor = off;
+        int d = 0;
+
+        if (len > MF_LIMIT) {
+            Arrays.fill(table, 0);
+            int matchLimit = end - MF_LIMIT;
+            int literalLimit = end - LAST_LITERALS;
+            int p = off;
+            int attempts = 1 << SKIP_TRIGGER;
+
+            while (p < matchLimit) {
+                int seq = readIntLE(src, p);
+                int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+                int ref = table[h] - 1 + off;
+                table[h] = p - off + 1;
+
+                if (ref < off || p - ref > MAX_DISTANCE || readIntLE(src, ref) != seq) {
+                    p += attempts++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                attempts = 1 << SKIP_TRIGGER;
+
+                while (p > anchor && ref > off && src[p - 1] == src[ref - 1]) {
+                    p--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (p + matchLen < literalLimit && src[p + matchLen] == src[ref + matchLen]) matchLen++;
+
+                d = writeSequence(src, anchor, p - anchor, p - ref, matchLen, dst, d);
+                p += matchLen;
+                anchor = p;
+            }
+        }
+
+        return writeLastLiterals(src, anchor, end - anchor, dst, d);
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLen, int offset, int matchLen, byte[] dst, int d) {
+        int tokenAt = d++;
+        int token;
+        if (literalLen >= 15) {
+            token = 15 << 4;
+            d = writeLength(dst, d, literalLen - 15);
+        } else {
+            token = literalLen << 4;
+        }
+        System.arraycopy(src, literalStart, dst, d, literalLen);
+        d += literalLen;
+
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+
+        int extra = matchLen - MIN_MATCH;
+        if (extra >= 15) {
+            token |= 15;
+            d = writeLength(dst, d, extra - 15);
+        } else {
+            token |= extra;
+        }
+        dst[tokenAt] = (byte) token;
+        return d;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literalLen, byte[] dst, int d) {
+        if (literalLen >= 15) {
+            dst[d++] = (byte) (15 << 4);
+            d = writeLength(dst, d, literalLen - 15);
+        } else {
+            dst[d++] = (byte) (literalLen << 4);
+        }
+        System.arraycopy(src, literalStart, dst, d, literalLen);
+        return d + literalLen;
+    }
+
+    private static int writeLength(byte[] dst, int d, int n) {
+        while (n >= 255) {
+            dst[d++] = (byte) 255;
+            n -= 255;
+        }
+        dst[d++] = (byte) n;
+        return d;
+    }
+
+    /**
+     * Decompresses one block into {@code dst[dstOff, dstOff + rawLen)}, which must
+     * come out exactly full.
+     *
+     * @throws IllegalStateException if the block is malformed
+     */
+    static void decompress(byte[] src, int off, int len, byte[] dst, int dstOff, int rawLen) {
+        int s = off;
+        int end = off + len;
+        int d = dstOff;
+        int dstEnd = dstOff + rawLen;
+
+        while (true) {
+            if (s >= end) throw malformed();
+            int token = src[s++] & 0xFF;
+
+            int literalLen = token >>> 4;
+            if (literalLen == 15) {
+                int b;
+                do {
+                    if (s >= end) throw malformed();
+                    b = src[s++] & 0xFF;
+                    literalLen += b;
+                } while (b == 255);
+            }
+            if (literalLen > end - s || literalLen > dstEnd - d) throw malformed();
+            System.arraycopy(src, s, dst, d, literalLen);
+            s += literalLen;
+            d += literalLen;
+
+            if (s == end) break;
+
+            if (end - s < 2) throw malformed();
+            int offset = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+            s += 2;
+
+            int matchLen = token & 0x0F;
+            if (matchLen == 15) {
+                int b;
+                do {
+                    if (s >= end) throw malformed();
+                    b = src[s++] & 0xFF;
+                    matchLen += b;
+                } while (b == 255);
+            }
+            matchLen += MIN_MATCH;
+
+            int ref = d - offset;
+            if (offset == 0 || ref < dstOff || matchLen > dstEnd - d) throw malformed();
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, d, matchLen);
+            } else {
+                for (int i = 0; i < matchLen; i++) dst[d + i] = dst[ref + i]; // Overlapping run
+            }
+            d += matchLen;
+        }
+
+        if (d != dstEnd) throw malformed();
+    }
+
+    private static IllegalStateException malformed() {
+        return new IllegalStateException("Malformed compressed frame");
+    }
+
+    private static int readIntLE(byte[] buf, int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8) |
+               ((buf[off + 2] & 0xFF) << 16) | ((buf[off + 3] & 0xFF) << 24);
+    }
+}
@@ -0,0 +1,265 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking transport. The socket is driven by a shared {@link NioEventLoop}
+ * instead of a dedicated reader thread; callers only append frames to the
+ * pending buffer and the loop drains it with as few {@code write()} calls as possible.
+ * This is the default transport ({@code -Dbonsai.transport=nio}).
+ */
+public class NioConnection extends PipelinedConnection {
+    private final NioEventLoop loop;
+    private SocketChannel channel;
+    private SelectionKey key;
+
+    private static final int READ_BUFFER_SIZE = 65536;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private final Object writeLock = new Object();
+    private WireBuffer writeBuffer = new WireBuffer(Config.WRITE_FLUSH_THRESHOLD);
+    private WireBuffer spareBuffer = new WireBuffer(Config.WRITE_FLUSH_THRESHOLD);
+    private int bufferedFrames = 0;
+    private boolean flushScheduled = false;
+
+    // Owned by the event loop thread
+    private ByteBuffer outbound;
+
+    public NioConnection(String host, int port) {
+        this(host, port, NioEventLoopGroup.shared().next());
+    }
+
+    public NioConnection(String host, int port, NioEventLoop loop) {
+        super(host, port);
+        this.loop = loop;
+        connect();
+    }
+
+    @Override
+    protected synchronized void connect() {
+        if (running) return;
+        try {
+            closeQuietly();
+            SocketChannel ch = open();
+            try {
+                negotiate(ch);
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            ch.configureBlocking(false);
+
+            synchronized (writeLock) {
+                this.channel = ch;
+                this.writeBuffer.reset();
+                this.bufferedFrames = 0;
+                this.flushScheduled = false;
+            }
+            this.readBuffer.clear();
+
+            loop.execute(() -> {
+                try {
+                    this.outbound = null;
+                    this.key = loop.register(ch, this);
+                } catch (IOException e) {
+                    onChannelError(ch, e);
+                }
+            });
+
+            onConnected();
+            BonsApi.LOGGER.info("Connected to " + endpoint() + " (nio, protocol v" + protocolVersion + ")");
+        } catch (Exception e) {
+            BonsApi.LOGGER.severe("Connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens and connects the channel, still in blocking mode.
+     */
+    protected SocketChannel open() throws IOException {
+        SocketChannel ch = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ch.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, Config.SOCKET_SEND_BUFFER);
+            ch.setOption(StandardSocketOptions.SO_RCVBUF, Config.SOCKET_RECEIVE_BUFFER);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    protected void negotiate(SocketChannel ch) throws IOException {
+        // Still blocking here; unbuffered so nothing past the handshake response is consumed
+        Socket s = ch.socket();
+        negotiateProtocol(s, new DataInputStream(s.getInputStream()), s.getOutputStream());
+    }
+
+    @Override
+    protected int write(PayloadWriter frame) throws IOException {
+        boolean schedule = false;
+        int totalSize;
+
+        synchronized (writeLock) {
+            if (!running || channel == null) throw new IOException("Not connected");
+
+            int start = writeBuffer.position();
+            try {
+                frame.writeTo(writeBuffer);
+            } catch (RuntimeException e) {
+                writeBuffer.position(start); // drop the half-encoded frame
+                throw e;
+            }
+            totalSize = writeBuffer.position() - start;
+            bufferedFrames++;
+
+            if (!flushScheduled) {
+                flushScheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (schedule) loop.execute(this::flushPending);
+        return totalSize;
+    }
+
+    /**
+     * Moves everything producers appended since the last flush onto the wire.
+     * Runs on the event loop only.
+     */
+    private void flushPending() {
+        if (outbound != null) return; // onWritable() picks the rest up
+
+        SocketChannel ch;
+        synchronized (writeLock) {
+            int len = writeBuffer.position();
+            if (len == 0) {
+                flushScheduled = false;
+                return;
+            }
+            WireBuffer ready = writeBuffer;
+            writeBuffer = spareBuffer;
+            writeBuffer.reset();
+            spareBuffer = ready;
+            outbound = ByteBuffer.wrap(ready.array(), 0, len);
+            flushStats.record(bufferedFrames, len);
+            bufferedFrames = 0;
+            flushScheduled = false;
+            ch = channel;
+        }
+
+        try {
+            writeOutbound(ch);
+        } catch (IOException e) {
+            onChannelError(ch, e);
+        }
+    }
+
+    private void writeOutbound(SocketChannel ch) throws IOException {
+        while (outbound.hasRemaining()) {
+            if (ch.write(outbound) == 0) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        outbound = null;
+        if (key != null && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+        flushPending();
+    }
+
+    void onWritable() throws IOException {
+        if (outbound != null) writeOutbound(channel);
+    }
+
+    void onReadable() throws IOException {
+        int n = channel.read(readBuffer);
+        if (n < 0) throw new EOFException("Connection closed by server");
+        if (n == 0) return;
+
+        readBuffer.flip();
+        boolean compact = protocolVersion == FrameCodec.PROTOCOL_V2;
+        while (readBuffer.hasRemaining()) {
+            int len;
+            int prefix;
+            if (compact) {
+                long varint = FrameCodec.peekVarInt(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(),
+                                                    readBuffer.arrayOffset() + readBuffer.limit());
+                if (varint < 0) break;
+                len = (int) varint;
+                prefix = (int) (varint >>> 32);
+            } else {
+                if (readBuffer.remaining() < 4) break;
+                len = readBuffer.getInt(readBuffer.position());
+                prefix = 4;
+            }
+            if (len < 0) throw new IOException("Invalid frame length");
+
+            if (readBuffer.remaining() < prefix + len) {
+                if (prefix + len > readBuffer.capacity()) {
+                    ByteBuffer grown = ByteBuffer.allocate(prefix + len);
+                    grown.put(readBuffer);
+                    readBuffer = grown;
+                    return;
+                }
+                break;
+            }
+
+            int start = readBuffer.position() + prefix;
+            readBuffer.position(start + len);
+            onFrame(readBuffer.array(), readBuffer.arrayOffset() + start, len);
+        }
+
+        if (readBuffer.capacity() > MAX_RETAINED_READ_BUFFER && readBuffer.remaining() <= READ_BUFFER_SIZE) {
+            ByteBuffer shrunk = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            shrunk.put(readBuffer);
+            readBuffer = shrunk;
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    void onChannelError(Exception e) {
+        onChannelError(channel, e);
+    }
+
+    private void onChannelError(SocketChannel failed, Exception e) {
+        synchronized (this) {
+            if (failed != channel || !running) return;
+            running = false;
+        }
+        BonsApi.LOGGER.severe("Stream Error: " + e.getMessage());
+        closeQuietly();
+        onConnectionLost(e);
+    }
+
+    @Override
+    public void stop() {
+        closed = true;
+        running = false;
+        loop.execute(() -> {
+            flushPending();
+            closeQuietly();
+        });
+    }
+
+    private void closeQuietly() {
+        try { if (key != null) key.cancel(); } catch (Exception ignored) {}
+        try { if (channel != null) channel.close(); } catch (Exception ignored) {}
+    }
+}
@@ -0,0 +1,108 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.util.ThreadUtil;
+
+import java.io.IOException;
+
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single selector thread multiplexing any number of {@link NioConnection}s.
+ * Other threads interact with it only through {@link #execute(Runnable)}.
+ */
+public class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = ThreadUtil.newDaemonThread(this, name);
+        this.thread.start();
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a connected, non-blocking channel. Must be called from the loop thread.
+     */
+    SelectionKey register(SocketChannel channel, NioConnection conn) throws IOException {
+        return channel.register(selector, SelectionKey.OP_READ, conn);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                // Tasks queued by the loop itself, e.g. a flush for a request admitted on a response, get no wakeup
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                wakeupPending.set(false);
+                runTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+            } catch (Throwable t) {
+                if (!running) break;
+                BonsApi.LOGGER.severe("Event loop error: " + t.getMessage());
+            }
+        }
+
+        try { selector.close(); } catch (IOException ignored) {}
+    }
+
+    private void processKey(SelectionKey key) {
+        NioConnection conn = (NioConnection) key.attachment();
+        try {
+            if (!key.isValid()) return;
+            if (key.isReadable()) conn.onReadable();
+            if (key.isValid() && key.isWritable()) conn.onWritable();
+        } catch (CancelledKeyException ignored) {
+        } catch (Exception e) {
+            conn.onChannelError(e);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                BonsApi.LOGGER.severe("Event loop task failed: " + t.getMessage());
+            }
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,53 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed set of event loops shared by every NIO connection in the process,
+ * so the thread count stays constant no matter how many pools or roots exist.
+ */
+public class NioEventLoopGroup {
+    private static volatile NioEventLoopGroup SHARED;
+
+    private final NioEventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger(0);
+
+    public NioEventLoopGroup(int threads) {
+        this.loops = new NioEventLoop[Math.max(1, threads)];
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new NioEventLoop("Bonsai-EventLoop-" + (i + 1));
+            }
+        } catch (IOException e) {
+            shutdown();
+            throw new UncheckedIOException("Failed to open selector", e);
+        }
+    }
+
+    public static NioEventLoopGroup shared() {
+        if (SHARED != null) return SHARED;
+        synchronized (NioEventLoopGroup.class) {
+            if (SHARED == null) SHARED = new NioEventLoopGroup(Config.NIO_THREADS);
+        }
+        return SHARED;
+    }
+
+    public NioEventLoop next() {
+        return loops[Math.abs(next.getAndIncrement() % loops.length)];
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public void shutdown() {
+        for (NioEventLoop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+    }
+}
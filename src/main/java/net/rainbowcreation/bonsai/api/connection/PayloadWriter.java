@@ -0,0 +1,16 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+/**
+ * Encodes a request payload directly into the outbound buffer of a connection.
+ * Implementations may be invoked while the connection holds its write lock, so
+ * they should only encode and never block.
+ */
+@FunctionalInterface
+public interface PayloadWriter {
+    void writeTo(WireBuffer out);
+
+    static PayloadWriter of(byte[] payload) {
+        if (payload == null) return null;
+        return out -> out.putBytes(payload);
+    }
+}
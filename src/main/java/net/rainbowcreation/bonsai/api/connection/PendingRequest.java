@@ -0,0 +1,62 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The future of one request together with everything needed to put it on the
+ * wire, so it can wait for admission and be encoded later. While in flight it is
+ * tagged with the id it was sent under, so a late response for a recycled slot
+ * can be told apart from the current occupant.
+ */
+final class PendingRequest extends CompletableFuture<byte[]> implements PayloadWriter {
+    final RequestOp op;
+    final short dbId;
+    final short tableId;
+    final String key;
+    final PayloadWriter payload;
+    final byte flags;
+
+    int id;         // Assigned by RequestSlots before the slot publishes it
+    int frameBytes; // Encoded size, returned to admission control on completion
+    long sentNanos;
+    long deadlineMillis;         // Absolute epoch millis, 0 without a deadline
+    TimerWheel.Timeout timeout;  // Fails the request once the deadline passes
+    IdempotencyToken token;      // Same on every resend of this write, null if untokened
+    boolean replayed;            // Requeued after its connection was lost
+
+    PipelinedConnection connection; // Set once dispatched
+    volatile boolean written;
+
+    PendingRequest(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        this.op = op;
+        this.dbId = dbId;
+        this.tableId = tableId;
+        this.key = key;
+        this.payload = payload;
+        this.flags = flags;
+    }
+
+    /**
+     * Encodes this request as one complete frame.
+     */
+    @Override
+    public void writeTo(WireBuffer out) {
+        FrameCodec.writeRequest(out, this, connection.protocolVersion, connection.serverFeatures);
+    }
+
+    /**
+     * Cancelling an in-flight request gives its slot and permit back immediately;
+     * the server's eventual reply no longer matches the slot and is dropped.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            if (timeout != null) timeout.cancel();
+            if (written) connection.abandon(this);
+        }
+        return cancelled;
+    }
+}
@@ -0,0 +1,677 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+import net.rainbowcreation.bonsai.BonsaiRequest;
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.api.util.ClientProfiler;
+import net.rainbowcreation.bonsai.util.ThreadUtil;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.nio.channels.SocketChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Request/response bookkeeping shared by every pipelined transport.
+ * Subclasses only own the socket: they connect, write encoded frames and hand
+ * complete inbound frames back through {@link #onFrame(byte[], int, int)}.
+ * <p>
+ * When a socket dies the transport reports it through {@link #onConnectionLost(Throwable)}.
+ * Idempotent requests that were in flight are replayed once a background task has
+ * reconnected with jittered exponential backoff, and so are writes carrying an
+ * {@link IdempotencyToken} to a server that negotiated them; other writes fail unless
+ * {@code bonsai.reconnect.replayWrites} is set. Requests submitted meanwhile wait
+ * for the new socket, bounded by their deadline. Table subscriptions are renewed
+ * after a reconnect.
+ */
+public abstract class PipelinedConnection implements Connection {
+    protected final String host;
+    protected final int port;
+    private final AdmissionController admission = new AdmissionController(this::dispatch);
+    private final RequestSlots pendingRequests = new RequestSlots(admission.hardLimit());
+
+    protected final FlushStats flushStats = new FlushStats();
+
+    /** Read buffers grown beyond this for one large frame are dropped again afterwards. */
+    protected static final int MAX_RETAINED_READ_BUFFER = 1 << 20;
+
+    private static final ExecutorService RECONNECTOR = Executors.newCachedThreadPool(
+        ThreadUtil.createThreadFactory("Bonsai-Reconnect", true)
+    );
+
+    protected volatile boolean running = false;
+    protected volatile boolean closed = false;
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    private int reconnectAttempts; // Owned by whichever thread runs the current attempt
+    private volatile long rttNanos = 0; // EWMA, written by the reader only
+    protected volatile int protocolVersion = FrameCodec.PROTOCOL_V1;
+    volatile int serverFeatures = 0;
+    private volatile boolean handshakeUnsupported = false;
+    private volatile InvalidationCallback invalidationCallback;
+    private volatile TableInvalidationCallback tableInvalidationCallback;
+    private final Set<Integer> subscriptions = ConcurrentHashMap.newKeySet(); // (dbId << 16) | tableId
+    private volatile Consumer<Throwable> noReplyErrorListener;
+    private final LongAdder noReplyErrors = new LongAdder();
+    private final CompletableFuture<Void> firstConnect = new CompletableFuture<>();
+
+    protected PipelinedConnection(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    protected abstract void connect();
+
+    /**
+     * Called by the transport once its socket is up and the handshake is done.
+     */
+    protected void onConnected() {
+        running = true;
+        firstConnect.complete(null);
+    }
+
+    /**
+     * Completes once this connection has connected and negotiated for the first time.
+     */
+    CompletableFuture<Void> firstConnect() {
+        return firstConnect;
+    }
+
+    /**
+     * Starts connecting on a reconnect thread, unless connected, reconnecting or closed.
+     */
+    void ensureConnecting() {
+        if (!running && !reconnecting.get() && !closed) reconnectInBackground();
+    }
+
+    /**
+     * Where this connection goes, for log and error messages.
+     */
+    protected String endpoint() {
+        return host + ":" + port;
+    }
+
+    /**
+     * Appends one complete frame, encoded by {@code frame}, to the outbound stream.
+     * The writer is invoked under the transport's write lock and writes into its buffer directly.
+     * Must not block on the socket: the actual write belongs to the transport's flusher.
+     *
+     * @return the encoded size of the frame in bytes
+     */
+    protected abstract int write(PayloadWriter frame) throws IOException;
+
+    @Override
+    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags) {
+        return sendEncoded(op, dbId, tableId, key, PayloadWriter.of(payload), flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        return sendEncoded(op, dbId, tableId, key, PayloadWriter.of(payload), flags, timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        return sendEncoded(op, dbId, tableId, key, payload, flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * Never blocks: the request is either written right away, parked until
+     * admission control has room for it, or failed according to the overflow policy.
+     * The deadline covers the whole wait, queueing included.
+     */
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags, long timeoutMillis) {
+        IdempotencyToken token = Config.IDEMPOTENCY_ENABLED && IdempotencyToken.appliesTo(op) ? IdempotencyToken.random() : null;
+        return sendEncoded(op, dbId, tableId, key, payload, flags, timeoutMillis, token);
+    }
+
+    /**
+     * Sends under a caller-chosen idempotency token, so a retry of the same write
+     * (possibly on another connection) is recognisable by the server. The token is
+     * only put on the wire while the server negotiated {@link FrameCodec#FEATURE_IDEMPOTENCY}.
+     */
+    CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags,
+                                          long timeoutMillis, IdempotencyToken token) {
+        if (closed) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IOException("Connection to " + endpoint() + " is closed"));
+            return failed;
+        }
+        ensureConnecting();
+
+        if (op == RequestOp.SUBSCRIBE) subscriptions.add((dbId << 16) | (tableId & 0xFFFF));
+
+        PendingRequest request = new PendingRequest(op, dbId, tableId, key, payload, flags);
+        request.token = token;
+        if (timeoutMillis > 0) {
+            request.deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+            request.timeout = TimerWheel.shared().schedule(() -> expire(request, timeoutMillis), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        admission.submit(request);
+        return request;
+    }
+
+    /**
+     * The deadline passed without an answer: fail the caller and reclaim the slot
+     * and permit if the request already went out. A request still waiting for
+     * admission is skipped when its turn comes, and says nothing about the server,
+     * so only written requests count as drops for the window.
+     */
+    private void expire(PendingRequest request, long timeoutMillis) {
+        if (request.completeExceptionally(new TimeoutException("No response within " + timeoutMillis + " ms for " + request.op))) {
+            if (request.written) {
+                admission.onTimeout();
+                abandon(request);
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return (serverFeatures & FrameCodec.FEATURE_BATCH) != 0;
+    }
+
+    @Override
+    public boolean supportsRows() {
+        return (serverFeatures & FrameCodec.FEATURE_ROWS) != 0;
+    }
+
+    @Override
+    public boolean supportsTypeIds() {
+        return (serverFeatures & FrameCodec.FEATURE_TYPE_IDS) != 0;
+    }
+
+    /**
+     * Whether writes sent now carry their idempotency token, and may thus be resent.
+     */
+    boolean supportsIdempotency() {
+        return (serverFeatures & FrameCodec.FEATURE_IDEMPOTENCY) != 0;
+    }
+
+    /**
+     * Compression needs the v2 frame layout and a server that negotiated it.
+     */
+    boolean compresses() {
+        return protocolVersion == FrameCodec.PROTOCOL_V2 && (serverFeatures & FrameCodec.FEATURE_COMPRESSION) != 0;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendBatch(short dbId, PayloadWriter ops, boolean atomic, long timeoutMillis) {
+        byte flags = (byte) (FrameCodec.FLAG_BATCH | (atomic ? FrameCodec.FLAG_ATOMIC : 0));
+        return sendEncoded(RequestOp.MGET, dbId, (short) 0, "", ops, flags, timeoutMillis, null);
+    }
+
+    /**
+     * Writes straight to the socket buffer, bypassing admission and the slot ring.
+     * Dropped, and counted as an error, while the connection is down. Servers that did
+     * not advertise {@link FrameCodec#FEATURE_NOREPLY} get a tracked request instead,
+     * whose answer is only checked for an error.
+     */
+    @Override
+    public void sendNoReply(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        ensureConnecting();
+        if ((serverFeatures & FrameCodec.FEATURE_NOREPLY) == 0) {
+            sendEncoded(op, dbId, tableId, key, payload, flags).whenComplete((body, ex) -> {
+                if (ex != null) onNoReplyError(dbId, tableId, key, ex);
+            });
+            return;
+        }
+        try {
+            write(out -> FrameCodec.writeNoReply(out, protocolVersion, compresses(), op, flags, dbId, tableId, key, payload));
+        } catch (Exception e) {
+            onNoReplyError(dbId, tableId, key, e);
+        }
+    }
+
+    /**
+     * A noreply write failed: the value the caller cached for {@code key} was never
+     * stored, so the key is invalidated like a server push would, then the error is
+     * counted and reported.
+     */
+    private void onNoReplyError(short dbId, short tableId, String key, Throwable error) {
+        TableInvalidationCallback callback = tableInvalidationCallback;
+        if (callback != null && key != null) callback.onInvalidate(dbId, tableId, Collections.singletonList(key));
+
+        noReplyErrors.increment();
+        Consumer<Throwable> listener = noReplyErrorListener;
+        if (listener != null) listener.accept(error);
+    }
+
+    /**
+     * Error response to a noreply write: {@code dbId(2) tableId(2) keyLen(2) key message}.
+     */
+    private void onNoReplyResponse(int status, byte[] buf, int off, int len) {
+        if (status / 100 == 2) return; // not an error, nothing to report
+
+        if (len < 6 || ((buf[off + 4] & 0xFF) << 8 | (buf[off + 5] & 0xFF)) > len - 6) {
+            String msg = len > 0 ? new String(buf, off, len, StandardCharsets.UTF_8) : "Unknown Error";
+            onNoReplyError((short) 0, (short) 0, null, new RuntimeException("Bonsai Error (" + status + ") in noreply write: " + msg));
+            return;
+        }
+        short dbId = (short) (((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF));
+        short tableId = (short) (((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF));
+        int keyLen = ((buf[off + 4] & 0xFF) << 8) | (buf[off + 5] & 0xFF);
+        String key = new String(buf, off + 6, keyLen, StandardCharsets.UTF_8);
+        int msgLen = len - 6 - keyLen;
+        String msg = msgLen > 0 ? new String(buf, off + 6 + keyLen, msgLen, StandardCharsets.UTF_8) : "Unknown Error";
+        onNoReplyError(dbId, tableId, key, new RuntimeException("Bonsai Error (" + status + ") in noreply write of " + key + ": " + msg));
+    }
+
+    /**
+     * Writes an admitted request. Runs on the submitting thread, or on whichever
+     * thread freed the capacity a queued request was waiting for, which may be the
+     * reader, the event loop or the timer; {@link #write} therefore never blocks.
+     */
+    private void dispatch(PendingRequest request) {
+        if (request.replayed && !isReplayable(request)) {
+            // Requeued for its token, but the server it reconnected to drops tokens
+            admission.release(0, 0);
+            request.completeExceptionally(new IOException("Connection to " + endpoint() +
+                " was lost and the new server does not accept idempotency tokens, so " + request.op + " was not resent"));
+            return;
+        }
+        request.connection = this;
+        int reqId = pendingRequests.register(request);
+
+        try {
+            request.sentNanos = System.nanoTime();
+            request.frameBytes = write(request);
+            admission.onWritten(request.frameBytes);
+        } catch (Exception e) {
+            if (pendingRequests.remove(reqId) != null) admission.release(request.frameBytes, 0);
+            request.completeExceptionally(e);
+            return;
+        }
+
+        request.written = true;
+        if (request.isDone()) abandon(request); // cancelled or timed out while it was being written
+    }
+
+    /**
+     * Frees the slot and permit of a request nobody waits for any more.
+     */
+    void abandon(PendingRequest request) {
+        if (pendingRequests.remove(request.id) == request) {
+            admission.release(request.frameBytes, 0);
+        }
+    }
+
+    /**
+     * Negotiates the frame format on a freshly connected socket, before anything
+     * else is written to it. A server that lets the handshake time out is taken to
+     * predate it: this attempt fails and later ones skip the handshake and use v1.
+     */
+    protected void negotiateProtocol(Socket socket, DataInputStream in, OutputStream out) throws IOException {
+        negotiateProtocol(() -> ProtocolHandshake.negotiate(socket, in, out));
+    }
+
+    /**
+     * Variant for channels without a {@link Socket} view; leaves {@code channel} non-blocking.
+     */
+    protected void negotiateProtocol(SocketChannel channel) throws IOException {
+        negotiateProtocol(() -> ProtocolHandshake.negotiate(channel));
+    }
+
+    private interface Handshake {
+        ProtocolHandshake run() throws IOException;
+    }
+
+    private void negotiateProtocol(Handshake handshake) throws IOException {
+        protocolVersion = FrameCodec.PROTOCOL_V1;
+        serverFeatures = 0;
+        if (handshakeUnsupported || !"auto".equalsIgnoreCase(Config.PROTOCOL)) return;
+
+        try {
+            ProtocolHandshake negotiated = handshake.run();
+            protocolVersion = negotiated.version;
+            serverFeatures = negotiated.features;
+        } catch (SocketTimeoutException e) {
+            handshakeUnsupported = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Dispatches one complete inbound frame (without its length prefix).
+     * {@code buf} is the transport's reusable read buffer: nothing may keep a
+     * reference to it after this returns, so the response body is copied out once.
+     */
+    protected void onFrame(byte[] buf, int off, int len) {
+        if (protocolVersion == FrameCodec.PROTOCOL_V2) {
+            onCompactFrame(buf, off, len);
+            return;
+        }
+
+        int receivedId = readInt(buf, off);
+
+        if (receivedId == -1) {
+            onPush(buf, off, len);
+            return;
+        }
+        if (receivedId == FrameCodec.PUSH_BATCH_ID) {
+            onBatchPush(buf, off + 4, len - 4);
+            return;
+        }
+
+        // Response: id(4) + status(4) + bodyLen(4) + body
+        if (len < 12) throw new IllegalStateException("Truncated response frame: " + len + " bytes");
+        int status = readInt(buf, off + 4);
+        int bodyLen = readInt(buf, off + 8);
+        if (bodyLen < 0 || bodyLen > len - 12) {
+            throw new IllegalStateException("Body underflow: Expected " + bodyLen + ", available " + (len - 12));
+        }
+
+        onResponse(receivedId, status, buf, off + 12, bodyLen, false);
+    }
+
+    /**
+     * v2 response: id(varint) + statusClass(1) + body up to the end of the frame.
+     * A compressed body is inflated into its own array, which the request completes with.
+     */
+    private void onCompactFrame(byte[] buf, int off, int len) {
+        int end = off + len;
+        long id = FrameCodec.peekVarInt(buf, off, end);
+        int p = off + (int) (id >>> 32);
+        if (id < 0 || p >= end) throw new IllegalStateException("Truncated response frame: " + len + " bytes");
+
+        int statusClass = buf[p++] & 0xFF;
+        if (statusClass == FrameCodec.STATUS_CLASS_PUSH) {
+            onPush(buf, p, end - p);
+            return;
+        }
+        if (statusClass == FrameCodec.STATUS_CLASS_PUSH_BATCH) {
+            onBatchPush(buf, p, end - p);
+            return;
+        }
+        if ((statusClass & FrameCodec.STATUS_COMPRESSED) != 0) {
+            byte[] body = FrameCodec.decompress(buf, p, end);
+            onResponse((int) id, FrameCodec.status(statusClass & ~FrameCodec.STATUS_COMPRESSED), body, 0, body.length, true);
+            return;
+        }
+        onResponse((int) id, FrameCodec.status(statusClass), buf, p, end - p, false);
+    }
+
+    private void onPush(byte[] buf, int off, int len) {
+        BonsaiRequest push = BonsaiRequest.fromBytes(Arrays.copyOfRange(buf, off, off + len));
+
+        if ((push.op == RequestOp.INVALIDATE || push.op == RequestOp.CHANGE_EVENT) && invalidationCallback != null) {
+            invalidationCallback.onInvalidate(push.db, push.table, push.key);
+        }
+    }
+
+    /**
+     * Batched invalidation: dbId(2) + tableId(2) + count(4) + [keyLen(2) + key] per key.
+     */
+    private void onBatchPush(byte[] buf, int off, int len) {
+        TableInvalidationCallback callback = tableInvalidationCallback;
+        if (callback == null) return;
+        if (len < 8) throw new IllegalStateException("Truncated invalidation batch: " + len + " bytes");
+
+        short dbId = (short) (((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF));
+        short tableId = (short) (((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF));
+        int count = readInt(buf, off + 4);
+        if (count < 0 || count > (len - 8) / 2) throw new IllegalStateException("Invalid invalidation batch count: " + count);
+
+        List<String> keys = count == 0 ? Collections.emptyList() : new ArrayList<>(count);
+        int p = off + 8;
+        int end = off + len;
+        for (int i = 0; i < count; i++) {
+            if (end - p < 2) throw new IllegalStateException("Truncated invalidation batch");
+            int keyLen = ((buf[p] & 0xFF) << 8) | (buf[p + 1] & 0xFF);
+            p += 2;
+            if (keyLen > end - p) throw new IllegalStateException("Truncated invalidation batch");
+            keys.add(new String(buf, p, keyLen, StandardCharsets.UTF_8));
+            p += keyLen;
+        }
+        callback.onInvalidate(dbId, tableId, keys);
+    }
+
+    /**
+     * @param owned {@code buf} is exactly the body and not reused, so it is handed out without a copy
+     */
+    private void onResponse(int receivedId, int status, byte[] buf, int bodyOff, int bodyLen, boolean owned) {
+        if (receivedId == FrameCodec.NOREPLY_ID) {
+            onNoReplyResponse(status, buf, bodyOff, bodyLen);
+            return;
+        }
+
+        PendingRequest future = pendingRequests.remove(receivedId);
+
+        ClientProfiler.onResponse(receivedId);
+
+        if (future != null) {
+            if (future.timeout != null) future.timeout.cancel();
+            long rtt = System.nanoTime() - future.sentNanos;
+            long avg = rttNanos;
+            rttNanos = (avg == 0) ? rtt : avg + ((rtt - avg) >> 3);
+            admission.release(future.frameBytes, rtt);
+            if (status >= 400) {
+                String msg = (bodyLen > 0) ? new String(buf, bodyOff, bodyLen, StandardCharsets.UTF_8) : "Unknown Error";
+                future.completeExceptionally(new RuntimeException("Bonsai Error (" + status + "): " + msg));
+            } else {
+                byte[] body = null;
+                if (owned) {
+                    body = bodyLen > 0 ? buf : null;
+                } else if (bodyLen > 0) {
+                    body = new byte[bodyLen];
+                    System.arraycopy(buf, bodyOff, body, 0, bodyLen);
+                }
+                future.complete(body);
+            }
+        }
+    }
+
+    protected static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) |
+               ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    /**
+     * Called by the transport once its socket is dead and {@link #running} is false.
+     * Replayable in-flight requests go back into the admission queue, the rest fail
+     * with {@code cause}, and a reconnect is scheduled.
+     */
+    protected void onConnectionLost(Throwable cause) {
+        admission.pause();
+        List<PendingRequest> lost = pendingRequests.removeAll();
+        long lostBytes = 0;
+        for (PendingRequest request : lost) {
+            lostBytes += request.frameBytes; // Each removed slot held a permit, done or not
+            if (request.isDone()) continue;
+            if (isReplayable(request)) {
+                request.written = false;
+                request.replayed = true;
+                request.frameBytes = 0;
+                admission.requeue(request);
+            } else {
+                request.completeExceptionally(cause);
+            }
+        }
+        admission.reset(lost.size(), lostBytes);
+        scheduleReconnect();
+    }
+
+    /**
+     * A write's token only makes a resend safe if the server negotiated tokens, both
+     * for the attempt that was lost and for the one that replays it.
+     */
+    private boolean isReplayable(PendingRequest request) {
+        boolean read = HedgingPolicy.isHedgeable(request.op) && (request.flags & FrameCodec.FLAG_BATCH) == 0;
+        return read || Config.RECONNECT_REPLAY_WRITES || (request.token != null && supportsIdempotency());
+    }
+
+    /**
+     * The socket is down without a reconnect in progress, as after a failed first
+     * connect: hold new requests and connect on a reconnect thread right away
+     * rather than on the caller's.
+     */
+    private void reconnectInBackground() {
+        admission.pause();
+        if (closed || !reconnecting.compareAndSet(false, true)) return;
+        reconnectAttempts = 0;
+        RECONNECTOR.execute(this::attemptReconnect);
+    }
+
+    private void scheduleReconnect() {
+        if (closed || !reconnecting.compareAndSet(false, true)) return;
+        reconnectAttempts = 0;
+        scheduleReconnectAttempt();
+    }
+
+    private void scheduleReconnectAttempt() {
+        long delay = backoffMillis(reconnectAttempts++);
+        TimerWheel.shared().schedule(() -> RECONNECTOR.execute(this::attemptReconnect), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on a reconnect thread, never on the reader or event loop, since
+     * connecting blocks.
+     */
+    private void attemptReconnect() {
+        if (closed) {
+            reconnecting.set(false);
+            shutdownPending(new IOException("Connection to " + endpoint() + " is closed"));
+            return;
+        }
+
+        connect();
+        if (!running) {
+            scheduleReconnectAttempt(); // connect() already logged why
+            return;
+        }
+
+        reconnecting.set(false);
+        admission.resume();
+        if (!running) {
+            scheduleReconnect(); // lost again before the flag was cleared
+            return;
+        }
+        resubscribe();
+    }
+
+    /**
+     * A new socket starts without subscriptions: renew them, and drop the cached
+     * tables since their invalidations may have been missed while disconnected.
+     */
+    private void resubscribe() {
+        TableInvalidationCallback callback = tableInvalidationCallback;
+        for (int subscription : subscriptions) {
+            short dbId = (short) (subscription >>> 16);
+            short tableId = (short) subscription;
+            sendEncoded(RequestOp.SUBSCRIBE, dbId, tableId, null, null, (byte) 0x01)
+                .whenComplete((body, ex) -> {
+                    if (ex != null) BonsApi.LOGGER.warning("Failed to renew subscription " + dbId + "/" + tableId + ": " + ex.getMessage());
+                });
+            if (callback != null) callback.onInvalidate(dbId, tableId, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Equal jitter: half the capped exponential delay, plus a random share of the other half.
+     */
+    private static long backoffMillis(int attempt) {
+        long cap = Math.min(Config.RECONNECT_MAX_DELAY_MS, Config.RECONNECT_BASE_DELAY_MS << Math.min(attempt, 20));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    /**
+     * Fails every in-flight request and every request still waiting for admission.
+     */
+    protected void shutdownPending(Throwable t) {
+        admission.failWaiting(t);
+        pendingRequests.failAll(t);
+    }
+
+    /**
+     * Registers a callback to handle cache invalidation notifications from the server.
+     * This is required for client-side caching to work correctly.
+     *
+     * @param callback the invalidation callback
+     */
+    @Override
+    public void setInvalidationCallback(InvalidationCallback callback) {
+        this.invalidationCallback = callback;
+    }
+
+    @Override
+    public void setTableInvalidationCallback(TableInvalidationCallback callback) {
+        this.tableInvalidationCallback = callback;
+    }
+
+    @Override
+    public void setNoReplyErrorListener(Consumer<Throwable> listener) {
+        this.noReplyErrorListener = listener;
+    }
+
+    /**
+     * Noreply writes that failed locally or were reported failed by the server.
+     */
+    public long getNoReplyErrorCount() {
+        return noReplyErrors.sum();
+    }
+
+    public FlushStats getFlushStats() {
+        return flushStats;
+    }
+
+    public boolean isConnected() {
+        return running;
+    }
+
+    /**
+     * True while the socket is down and a background reconnect is in progress.
+     */
+    public boolean isReconnecting() {
+        return reconnecting.get();
+    }
+
+    public int getPendingCount() {
+        return admission.getInFlight();
+    }
+
+    /**
+     * Current in-flight window chosen by the concurrency limiter.
+     */
+    public int getConcurrencyLimit() {
+        return admission.getLimit();
+    }
+
+    /**
+     * Smoothed request round-trip time in nanoseconds, 0 before the first response.
+     */
+    public long getRttNanos() {
+        return rttNanos;
+    }
+
+    /**
+     * No-load round-trip baseline the limiter compares against, 0 if unknown.
+     */
+    public long getMinRttNanos() {
+        return admission.getMinRttNanos();
+    }
+
+    public long getInFlightBytes() {
+        return admission.getInFlightBytes();
+    }
+
+    public int getQueuedCount() {
+        return admission.getWaiting();
+    }
+}
@@ -0,0 +1,41 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Power-of-two-choices: samples two distinct connections and keeps the cheaper
+ * one, where cost is the smoothed round-trip time scaled by the requests already
+ * outstanding. A socket stuck behind a large frame accumulates outstanding
+ * requests and stops being picked without the O(n) scan of a least-loaded pick.
+ */
+public class PowerOfTwoChoicesSelector implements ConnectionSelector {
+
+    @Override
+    public PipelinedConnection select(List<PipelinedConnection> connections, RequestOp op, short tableId, String key) {
+        int size = connections.size();
+        if (size == 1) return connections.get(0);
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if (b >= a) b++;
+
+        PipelinedConnection first = connections.get(a);
+        PipelinedConnection second = connections.get(b);
+        return cost(second) < cost(first) ? second : first;
+    }
+
+    private static double cost(PipelinedConnection conn) {
+        if (!conn.isConnected()) return Double.MAX_VALUE;
+        long rtt = Math.max(1, conn.getRttNanos());
+        return (double) rtt * (conn.getPendingCount() + 1);
+    }
+
+    @Override
+    public String name() {
+        return "p2c";
+    }
+}
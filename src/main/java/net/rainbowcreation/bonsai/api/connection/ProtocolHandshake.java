@@ -0,0 +1,144 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Connect-time negotiation of the frame format. The client offers the highest
+ * version it speaks and the optional features it supports in a v1 hello frame;
+ * a server that knows the handshake answers with {@code HELLO_MAGIC + version + features},
+ * anything else (a miss, an error) means the server only speaks plain v1.
+ */
+final class ProtocolHandshake {
+    private static final int MAX_RESPONSE = 64 * 1024;
+    private static final int CLIENT_FEATURES = FrameCodec.FEATURE_BATCH | FrameCodec.FEATURE_PUSH_BATCH |
+        (Config.COMPRESSION_THRESHOLD > 0 ? FrameCodec.FEATURE_COMPRESSION : 0) |
+        (Config.ROW_FORMAT ? FrameCodec.FEATURE_ROWS : 0) |
+        (Config.TYPE_DICTIONARY ? FrameCodec.FEATURE_TYPE_IDS : 0) |
+        (Config.NOREPLY_ENABLED ? FrameCodec.FEATURE_NOREPLY : 0) |
+        (Config.IDEMPOTENCY_ENABLED ? FrameCodec.FEATURE_IDEMPOTENCY : 0) |
+        (Config.DEADLINE_PROPAGATE ? FrameCodec.FEATURE_DEADLINE : 0);
+
+    static final ProtocolHandshake V1 = new ProtocolHandshake(FrameCodec.PROTOCOL_V1, 0);
+
+    final int version;
+    final int features; // Supported by both sides
+
+    private ProtocolHandshake(int version, int features) {
+        this.version = version;
+        this.features = features;
+    }
+
+    /**
+     * Runs the handshake on a blocking socket nobody else reads or writes yet.
+     *
+     * @return the version and features both sides use from now on
+     */
+    static ProtocolHandshake negotiate(Socket socket, DataInputStream in, OutputStream out) throws IOException {
+        WireBuffer hello = hello();
+
+        int previousTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(Config.HANDSHAKE_TIMEOUT_MS);
+        try {
+            out.write(hello.array(), 0, hello.position());
+            out.flush();
+
+            int len = in.readInt();
+            checkLength(len);
+            byte[] frame = new byte[len];
+            in.readFully(frame);
+            return parse(frame, len);
+        } finally {
+            socket.setSoTimeout(previousTimeout);
+        }
+    }
+
+    /**
+     * Same exchange for channels that have no {@link Socket} view, such as Unix
+     * domain sockets. The timeout is enforced with a temporary selector, so the
+     * channel is left in non-blocking mode.
+     */
+    static ProtocolHandshake negotiate(SocketChannel channel) throws IOException {
+        WireBuffer hello = hello();
+        long deadline = System.nanoTime() + Config.HANDSHAKE_TIMEOUT_MS * 1_000_000L;
+
+        channel.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            SelectionKey key = channel.register(selector, 0);
+
+            ByteBuffer out = ByteBuffer.wrap(hello.array(), 0, hello.position());
+            while (out.hasRemaining()) {
+                if (channel.write(out) == 0) await(selector, key, SelectionKey.OP_WRITE, deadline);
+            }
+
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(channel, length, selector, key, deadline);
+            int len = length.getInt(0);
+            checkLength(len);
+
+            ByteBuffer frame = ByteBuffer.allocate(len); // Exactly one frame: nothing past the response is consumed
+            readFully(channel, frame, selector, key, deadline);
+            return parse(frame.array(), len);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buf, Selector selector, SelectionKey key, long deadline) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf);
+            if (n < 0) throw new IOException("Connection closed during handshake");
+            if (n == 0) await(selector, key, SelectionKey.OP_READ, deadline);
+        }
+    }
+
+    private static void await(Selector selector, SelectionKey key, int ops, long deadline) throws IOException {
+        key.interestOps(ops);
+        long remaining = (deadline - System.nanoTime()) / 1_000_000L;
+        if (remaining <= 0 || selector.select(remaining) == 0) {
+            throw new SocketTimeoutException("No handshake response within " + Config.HANDSHAKE_TIMEOUT_MS + " ms");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private static WireBuffer hello() {
+        WireBuffer hello = new WireBuffer(64);
+        FrameCodec.writeHello(hello, buf -> {
+            buf.putInt(FrameCodec.HELLO_MAGIC);
+            buf.putByte(FrameCodec.PROTOCOL_V2);
+            buf.putByte(CLIENT_FEATURES);
+        });
+        return hello;
+    }
+
+    /**
+     * The answer is always a v1 response: id(4) + status(4) + bodyLen(4) + body.
+     */
+    private static void checkLength(int len) throws IOException {
+        if (len < 12 || len > MAX_RESPONSE) throw new IOException("Unexpected handshake response length: " + len);
+    }
+
+    private static ProtocolHandshake parse(byte[] frame, int len) throws IOException {
+        int id = PipelinedConnection.readInt(frame, 0);
+        if (id != FrameCodec.HELLO_ID) throw new IOException("Unexpected response id " + id + " to handshake");
+
+        int status = PipelinedConnection.readInt(frame, 4);
+        int bodyLen = PipelinedConnection.readInt(frame, 8);
+        if (status >= 400 || bodyLen < 5 || bodyLen > len - 12 ||
+            PipelinedConnection.readInt(frame, 12) != FrameCodec.HELLO_MAGIC) {
+            return V1;
+        }
+        int version = frame[16] >= FrameCodec.PROTOCOL_V2 ? FrameCodec.PROTOCOL_V2 : FrameCodec.PROTOCOL_V1;
+        int features = bodyLen >= 6 ? frame[17] & CLIENT_FEATURES : 0;
+        return new ProtocolHandshake(version, features);
+    }
+}
@@ -0,0 +1,77 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-flight requests of one connection, kept in a power-of-two ring indexed by
+ * {@code id & mask}. Ids are generated per connection; registering and resolving a
+ * request is a single CAS without boxing or hashing.
+ * <p>
+ * The ring is at least as large as the pipeline limit, so a free slot always
+ * exists while the caller holds a pipeline permit. Ids whose slot is still held by
+ * a slow request are skipped. Ids {@code 0} to {@code -3} are never handed out,
+ * they are reserved for noreply writes, server pushes, the handshake and push
+ * batches (see {@link FrameCodec}).
+ */
+final class RequestSlots {
+    private final AtomicReferenceArray<PendingRequest> slots;
+    private final int mask;
+    private final AtomicInteger nextId = new AtomicInteger(0);
+
+    RequestSlots(int maxPending) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxPending - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Claims a slot for {@code request} and returns the id it must be sent with.
+     */
+    int register(PendingRequest request) {
+        while (true) {
+            int id = nextId.incrementAndGet();
+            if (id <= 0 && id >= -3) continue;
+
+            request.id = id;
+            if (slots.compareAndSet(id & mask, null, request)) {
+                return id;
+            }
+        }
+    }
+
+    /**
+     * Releases and returns the request registered under {@code id}, or null if the
+     * id is unknown or its slot has been reused since.
+     */
+    PendingRequest remove(int id) {
+        int index = id & mask;
+        PendingRequest request = slots.get(index);
+        if (request == null || request.id != id) return null;
+        return slots.compareAndSet(index, request, null) ? request : null;
+    }
+
+    /**
+     * Empties every slot and returns the requests that were still waiting.
+     */
+    List<PendingRequest> removeAll() {
+        List<PendingRequest> removed = new ArrayList<>();
+        for (int i = 0; i < slots.length(); i++) {
+            PendingRequest request = slots.getAndSet(i, null);
+            if (request != null) removed.add(request);
+        }
+        return removed;
+    }
+
+    /**
+     * Empties every slot, failing the requests that were still waiting.
+     */
+    void failAll(Throwable t) {
+        for (int i = 0; i < slots.length(); i++) {
+            PendingRequest request = slots.getAndSet(i, null);
+            if (request != null) request.completeExceptionally(t);
+        }
+    }
+}
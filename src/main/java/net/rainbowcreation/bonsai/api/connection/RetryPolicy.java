@@ -0,0 +1,108 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongFunction;
+
+/**
+ * Resends a tokened write after a transport failure or a timeout, when it is
+ * unknown whether the server applied it. Each resend carries the original
+ * {@link IdempotencyToken}, which makes it safe. Error replies from the server
+ * are final and never retried.
+ */
+public class RetryPolicy {
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final LongAdder retries = new LongAdder();
+
+    public RetryPolicy() {
+        this(Config.RETRY_MAX_ATTEMPTS, Config.RETRY_BACKOFF_MS);
+    }
+
+    public RetryPolicy(int maxAttempts, long backoffMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Runs {@code attempt} until one succeeds, fails with a non-retryable error, the
+     * attempts are used up or {@code timeoutMillis} has passed. The timeout covers all
+     * attempts and backoffs together: each attempt is passed the milliseconds left of
+     * it, or {@code timeoutMillis} itself when that is {@code <= 0} (no timeout).
+     */
+    CompletableFuture<byte[]> execute(long timeoutMillis, LongFunction<CompletableFuture<byte[]>> attempt) {
+        return execute(timeoutMillis, attempt, () -> true);
+    }
+
+    /**
+     * Like {@link #execute(long, LongFunction)}, but a failed attempt is only retried
+     * while {@code mayRetry} holds, checked after the failure.
+     */
+    CompletableFuture<byte[]> execute(long timeoutMillis, LongFunction<CompletableFuture<byte[]>> attempt, BooleanSupplier mayRetry) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        long deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        run(attempt, mayRetry, 0, timeoutMillis, deadline, result);
+        return result;
+    }
+
+    private void run(LongFunction<CompletableFuture<byte[]>> attempt, BooleanSupplier mayRetry, int n, long timeoutMillis, long deadline,
+                     CompletableFuture<byte[]> result) {
+        if (result.isDone()) return; // cancelled by the caller
+
+        long budget = deadline == 0 ? timeoutMillis : TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        if (deadline != 0 && budget <= 0) {
+            result.completeExceptionally(new TimeoutException("Request timed out after " + n + " attempts"));
+            return;
+        }
+
+        attempt.apply(budget).whenComplete((body, ex) -> {
+            if (ex == null) {
+                result.complete(body);
+                return;
+            }
+            long delay = backoffMillis << Math.min(n, 10);
+            delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            boolean inTime = deadline == 0 || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) < deadline;
+
+            if (n + 1 < maxAttempts && inTime && isRetryable(ex) && mayRetry.getAsBoolean()) {
+                retries.increment();
+                // The timer thread must not block on a socket, so the attempt runs on a worker
+                TimerWheel.shared().schedule(() -> {
+                    try {
+                        BonsApi.WORKER_POOL.execute(() -> run(attempt, mayRetry, n + 1, timeoutMillis, deadline, result));
+                    } catch (RejectedExecutionException rejected) {
+                        result.completeExceptionally(ex);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } else {
+                result.completeExceptionally(ex);
+            }
+        });
+    }
+
+    static boolean isRetryable(Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex instanceof IOException || ex instanceof TimeoutException;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+}
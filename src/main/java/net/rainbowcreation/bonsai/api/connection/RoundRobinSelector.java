@@ -0,0 +1,42 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rotates through the pool, falling back to the least loaded connected one when
+ * the next one in turn is reconnecting or over half its window.
+ */
+public class RoundRobinSelector implements ConnectionSelector {
+    private final AtomicInteger roundRobin = new AtomicInteger(0);
+
+    @Override
+    public PipelinedConnection select(List<PipelinedConnection> connections, RequestOp op, short tableId, String key) {
+        int idx = Math.abs(roundRobin.getAndIncrement() % connections.size());
+        PipelinedConnection conn = connections.get(idx);
+
+        if (!conn.isConnected() || conn.getPendingCount() > conn.getConcurrencyLimit() / 2) {
+            int minPending = conn.isConnected() ? conn.getPendingCount() : Integer.MAX_VALUE;
+            PipelinedConnection best = conn;
+
+            for (PipelinedConnection c : connections) {
+                if (!c.isConnected()) continue;
+                int pending = c.getPendingCount();
+                if (pending < minPending) {
+                    minPending = pending;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        return conn;
+    }
+
+    @Override
+    public String name() {
+        return "round-robin";
+    }
+}
@@ -0,0 +1,556 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+import net.rainbowcreation.bonsai.util.ForyFactory;
+import net.rainbowcreation.bonsai.util.JsonUtil;
+
+import org.apache.fory.ThreadSafeFory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Spreads one logical Bonsai over several servers, each reached through its own
+ * {@link ConnectionPool}.
+ * <p>
+ * Single-key operations go to the node that wins a rendezvous (highest random
+ * weight) hash of db id, table id and key, so adding or removing a node only
+ * moves the keys that node wins or owned. MGET is split into one sub-batch per
+ * node and the answers are merged; queries are scattered to every node and
+ * gathered (lists concatenated, sorted and paged again, counts summed).
+ * Schema registration and subscriptions are broadcast; every node must hand out
+ * the same ids for a database or table, otherwise registration fails. Batches are
+ * split by owner like MGET; an atomic batch must stay on one node. Protocol features
+ * are only used when every node negotiated them, except rows and type ids, which stay off.
+ */
+public class ShardedConnection implements Connection {
+    private static final ThreadSafeFory FORY = ForyFactory.get();
+
+    private static final class Node {
+        final String address;
+        final long hash;
+        final Connection connection;
+
+        Node(String address, Connection connection) {
+            this.address = address;
+            this.hash = mix(fnv(FNV_OFFSET, address));
+            this.connection = connection;
+        }
+    }
+
+    private volatile Node[] nodes = new Node[0];
+    private volatile InvalidationCallback invalidationCallback;
+    private volatile TableInvalidationCallback tableInvalidationCallback;
+    private volatile Consumer<Throwable> noReplyErrorListener;
+
+    /**
+     * @param addresses comma separated {@code host:port} list; the port defaults to {@code defaultPort}
+     */
+    public ShardedConnection(String addresses, int defaultPort) {
+        for (String address : addresses.split(",")) {
+            address = address.trim();
+            if (address.isEmpty()) continue;
+
+            int colon = address.lastIndexOf(':');
+            if (colon > 0) {
+                addNode(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            } else {
+                addNode(address, defaultPort);
+            }
+        }
+        if (nodes.length == 0) throw new IllegalArgumentException("No Bonsai nodes in '" + addresses + "'");
+    }
+
+    public void addNode(String host, int port) {
+        addNode(host + ":" + port, new ConnectionPool(host, port));
+    }
+
+    public synchronized void addNode(String address, Connection connection) {
+        for (Node n : nodes) {
+            if (n.address.equals(address)) throw new IllegalArgumentException("Node already added: " + address);
+        }
+        if (invalidationCallback != null) connection.setInvalidationCallback(invalidationCallback);
+        if (tableInvalidationCallback != null) connection.setTableInvalidationCallback(tableInvalidationCallback);
+        if (noReplyErrorListener != null) connection.setNoReplyErrorListener(noReplyErrorListener);
+
+        Node[] grown = Arrays.copyOf(nodes, nodes.length + 1);
+        grown[nodes.length] = new Node(address, connection);
+        nodes = grown;
+        BonsApi.LOGGER.info("Added shard " + address + " (" + grown.length + " nodes)");
+    }
+
+    /**
+     * Removes a node and stops its connections. Only the keys it owned move.
+     */
+    public synchronized boolean removeNode(String address) {
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i].address.equals(address)) {
+                Node removed = nodes[i];
+                Node[] shrunk = new Node[nodes.length - 1];
+                System.arraycopy(nodes, 0, shrunk, 0, i);
+                System.arraycopy(nodes, i + 1, shrunk, i, nodes.length - i - 1);
+                nodes = shrunk;
+                removed.connection.stop();
+                BonsApi.LOGGER.info("Removed shard " + address + " (" + shrunk.length + " nodes)");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> getNodes() {
+        List<String> list = new ArrayList<>();
+        for (Node n : nodes) list.add(n.address);
+        return list;
+    }
+
+    /**
+     * The connection owning {@code key} of the given table.
+     */
+    public Connection connectionFor(short dbId, short tableId, String key) {
+        return owner(nodes, dbId, tableId, key).connection;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags) {
+        return send(op, dbId, tableId, key, payload, flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        Node[] current = nodes;
+        if (current.length == 1) return current[0].connection.send(op, dbId, tableId, key, payload, flags, timeoutMillis);
+
+        switch (op) {
+            case MGET:
+                return sendMget(current, dbId, tableId, key, payload, flags, timeoutMillis);
+            case QUERY_GET:
+                return queryGet(current, dbId, tableId, key, payload, flags, timeoutMillis);
+            case QUERY_COUNT:
+                return scatter(current, op, dbId, tableId, key, payload, flags, timeoutMillis).thenApply(ShardedConnection::sumCounts);
+            case QUERY_UPDATE:
+            case QUERY_DELETE:
+                return scatter(current, op, dbId, tableId, key, payload, flags, timeoutMillis).thenApply(bodies -> null);
+            case REGISTER_SCHEMA:
+                return scatter(current, op, dbId, tableId, key, payload, flags, timeoutMillis).thenApply(ShardedConnection::sameIds);
+            case SUBSCRIBE:
+                return scatter(current, op, dbId, tableId, key, payload, flags, timeoutMillis).thenApply(bodies -> bodies.get(0));
+            default:
+                return owner(current, dbId, tableId, key).connection.send(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        return sendEncoded(op, dbId, tableId, key, payload, flags, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> sendEncoded(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags, long timeoutMillis) {
+        Node[] current = nodes;
+        if (current.length == 1 || isKeyed(op)) {
+            return owner(current, dbId, tableId, key).connection.sendEncoded(op, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+
+        // Split and scatter need the finished payload
+        byte[] bytes = null;
+        if (payload != null) {
+            WireBuffer buffer = new WireBuffer(256);
+            payload.writeTo(buffer);
+            bytes = buffer.toByteArray();
+        }
+        return send(op, dbId, tableId, key, bytes, flags, timeoutMillis);
+    }
+
+    @Override
+    public CompletableFuture<Void> negotiated() {
+        Node[] current = nodes;
+        CompletableFuture<?>[] all = new CompletableFuture<?>[current.length];
+        for (int i = 0; i < all.length; i++) all[i] = current[i].connection.negotiated();
+        return CompletableFuture.allOf(all);
+    }
+
+    @Override
+    public boolean supportsBatch() {
+        return allSupport(Connection::supportsBatch);
+    }
+
+    /**
+     * Always false: sorted and paged queries are merged here by field, which needs
+     * maps, and a positional row can only be read with its entity class.
+     */
+    @Override
+    public boolean supportsRows() {
+        return false;
+    }
+
+    /**
+     * Always false: each shard numbers its own class dictionary, and two clients
+     * registering different classes at once can leave the shards with ids in a
+     * different order for good. Mixed-type tables keep the class name prefix here.
+     */
+    @Override
+    public boolean supportsTypeIds() {
+        return false;
+    }
+
+    private boolean allSupport(Predicate<Connection> feature) {
+        Node[] current = nodes;
+        if (current.length == 0) return false;
+        for (Node n : current) {
+            if (!feature.test(n.connection)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isKeyed(RequestOp op) {
+        return op == RequestOp.GET || op == RequestOp.SET || op == RequestOp.DELETE || op == RequestOp.EXISTS;
+    }
+
+    // --- Routing ---
+
+    private static Node owner(Node[] nodes, short dbId, short tableId, String key) {
+        if (nodes.length == 1) return nodes[0];
+
+        long keyHash = keyHash(dbId, tableId, key);
+        Node best = null;
+        long bestScore = 0;
+        for (Node n : nodes) {
+            long score = mix(n.hash ^ keyHash);
+            if (best == null || Long.compareUnsigned(score, bestScore) > 0) {
+                best = n;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long keyHash(short dbId, short tableId, String key) {
+        long h = FNV_OFFSET;
+        h = (h ^ dbId) * FNV_PRIME;
+        h = (h ^ tableId) * FNV_PRIME;
+        return fnv(h, key == null ? "" : key);
+    }
+
+    private static long fnv(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // --- MGET split / merge ---
+
+    /**
+     * Request: count(4) + [keyLen(2) + keyBytes]...
+     * Response: count(4) + [keyLen(2) + keyBytes + valueLen(4) + valueBytes]...
+     */
+    private CompletableFuture<byte[]> sendMget(Node[] nodes, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        if (payload == null || payload.length < 4) {
+            return nodes[0].connection.send(RequestOp.MGET, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        int count = buf.getInt();
+        Map<Node, WireBuffer> batches = new LinkedHashMap<>();
+        Map<Node, Integer> counts = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            int start = buf.position();
+            int kl = buf.getShort() & 0xFFFF;
+            String k = new String(payload, buf.position(), kl, StandardCharsets.UTF_8);
+            buf.position(buf.position() + kl);
+
+            Node node = owner(nodes, dbId, tableId, k);
+            WireBuffer batch = batches.get(node);
+            if (batch == null) {
+                batch = new WireBuffer(payload.length);
+                batch.putInt(0);
+                batches.put(node, batch);
+            }
+            batch.putBytes(payload, start, buf.position() - start);
+            counts.merge(node, 1, Integer::sum);
+        }
+
+        if (batches.size() == 1) {
+            return batches.keySet().iterator().next().connection.send(RequestOp.MGET, dbId, tableId, key, payload, flags, timeoutMillis);
+        }
+
+        List<CompletableFuture<byte[]>> parts = new ArrayList<>(batches.size());
+        for (Map.Entry<Node, WireBuffer> e : batches.entrySet()) {
+            WireBuffer batch = e.getValue();
+            batch.putIntAt(0, counts.get(e.getKey()));
+            parts.add(e.getKey().connection.send(RequestOp.MGET, dbId, tableId, key, batch.toByteArray(), flags, timeoutMillis));
+        }
+        return gather(parts).thenApply(ShardedConnection::mergeMget);
+    }
+
+    private static byte[] mergeMget(List<byte[]> bodies) {
+        int total = 0;
+        int size = 4;
+        for (byte[] body : bodies) {
+            if (body == null || body.length < 4) continue;
+            total += ByteBuffer.wrap(body).getInt();
+            size += body.length - 4;
+        }
+
+        ByteBuffer merged = ByteBuffer.allocate(size);
+        merged.putInt(total);
+        for (byte[] body : bodies) {
+            if (body == null || body.length < 4) continue;
+            merged.put(body, 4, body.length - 4);
+        }
+        return merged.array();
+    }
+
+    // --- Batch split / merge ---
+
+    /**
+     * Request: count(4) + [op(1) flags(1) tableId(2) keyLen(2) key], where a SET adds
+     * [expiry(8) if flagged] valueLen(4) value.
+     * Response: count(4) + [statusClass(1) len(4) body]... in request order.
+     */
+    @Override
+    public CompletableFuture<byte[]> sendBatch(short dbId, PayloadWriter ops, boolean atomic, long timeoutMillis) {
+        Node[] current = nodes;
+        if (current.length == 1) return current[0].connection.sendBatch(dbId, ops, atomic, timeoutMillis);
+
+        WireBuffer encoded = new WireBuffer(256);
+        ops.writeTo(encoded);
+        byte[] payload = encoded.toByteArray();
+
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        int count = buf.getInt();
+        Node[] owners = new Node[count];
+        Map<Node, WireBuffer> batches = new LinkedHashMap<>();
+        Map<Node, Integer> counts = new HashMap<>();
+
+        for (int i = 0; i < count; i++) {
+            int start = buf.position();
+            byte op = buf.get();
+            byte flags = buf.get();
+            short tableId = buf.getShort();
+            int kl = buf.getShort() & 0xFFFF;
+            String k = new String(payload, buf.position(), kl, StandardCharsets.UTF_8);
+            buf.position(buf.position() + kl);
+            if (op == RequestOp.SET.getByte()) {
+                if ((flags & 0x02) != 0) buf.position(buf.position() + 8);
+                int vl = buf.getInt();
+                buf.position(buf.position() + vl);
+            }
+
+            Node node = owner(current, dbId, tableId, k);
+            owners[i] = node;
+            WireBuffer batch = batches.get(node);
+            if (batch == null) {
+                batch = new WireBuffer(payload.length);
+                batch.putInt(0);
+                batches.put(node, batch);
+            }
+            batch.putBytes(payload, start, buf.position() - start);
+            counts.merge(node, 1, Integer::sum);
+        }
+
+        if (batches.size() <= 1) {
+            Node node = batches.isEmpty() ? current[0] : batches.keySet().iterator().next();
+            return node.connection.sendBatch(dbId, out -> out.putBytes(payload, 0, payload.length), atomic, timeoutMillis);
+        }
+        if (atomic) {
+            CompletableFuture<byte[]> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new UnsupportedOperationException(
+                "An atomic batch must stay on one shard, this one spans " + batches.size() + " nodes"));
+            return failed;
+        }
+
+        List<Node> order = new ArrayList<>(batches.keySet());
+        List<CompletableFuture<byte[]>> parts = new ArrayList<>(order.size());
+        for (Node node : order) {
+            WireBuffer batch = batches.get(node);
+            batch.putIntAt(0, counts.get(node));
+            byte[] part = batch.toByteArray();
+            parts.add(node.connection.sendBatch(dbId, out -> out.putBytes(part, 0, part.length), false, timeoutMillis));
+        }
+        return gather(parts).thenApply(bodies -> mergeBatch(bodies, order, owners));
+    }
+
+    /**
+     * Interleaves the per-node results back into request order; each node answers its
+     * own operations in the order they were sent to it.
+     */
+    private static byte[] mergeBatch(List<byte[]> bodies, List<Node> order, Node[] owners) {
+        int[] positions = new int[bodies.size()];
+        int size = 4;
+        for (int i = 0; i < bodies.size(); i++) {
+            byte[] body = bodies.get(i);
+            if (body == null || body.length < 4) throw new IllegalStateException("Truncated batch response from " + order.get(i).address);
+            positions[i] = 4;
+            size += body.length - 4;
+        }
+
+        ByteBuffer merged = ByteBuffer.allocate(size);
+        merged.putInt(owners.length);
+        for (Node owner : owners) {
+            int n = order.indexOf(owner);
+            byte[] body = bodies.get(n);
+            int p = positions[n];
+            if (p > body.length - 5) throw new IllegalStateException("Truncated batch response from " + owner.address);
+            int len = 5 + ByteBuffer.wrap(body).getInt(p + 1);
+            if (len < 5 || len > body.length - p) throw new IllegalStateException("Truncated batch response from " + owner.address);
+            merged.put(body, p, len);
+            positions[n] = p + len;
+        }
+        return Arrays.copyOf(merged.array(), merged.position());
+    }
+
+    // --- Query scatter / gather ---
+
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<byte[]> queryGet(Node[] nodes, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        Map<String, Object> query = (payload == null) ? null
+            : JsonUtil.fromJson(new String(payload, StandardCharsets.UTF_8), Map.class);
+        int limit = (query != null && query.get("limit") instanceof Number) ? ((Number) query.get("limit")).intValue() : -1;
+        int offset = (query != null && query.get("offset") instanceof Number) ? ((Number) query.get("offset")).intValue() : -1;
+        Map<String, Object> sort = (query != null && query.get("sort") instanceof Map) ? (Map<String, Object>) query.get("sort") : null;
+
+        byte[] shardPayload = payload;
+        if (offset > 0) {
+            // Every node has to return its first offset+limit rows, the page is cut after merging
+            Map<String, Object> copy = new HashMap<>(query);
+            copy.remove("offset");
+            if (limit > 0) copy.put("limit", limit + offset);
+            shardPayload = JsonUtil.toJson(copy).getBytes(StandardCharsets.UTF_8);
+        }
+
+        int from = Math.max(0, offset);
+        return scatter(nodes, RequestOp.QUERY_GET, dbId, tableId, key, shardPayload, flags, timeoutMillis).thenApply(bodies -> {
+            List<Object> rows = new ArrayList<>();
+            for (byte[] body : bodies) {
+                if (body == null || body.length == 0) continue;
+                Object raw = FORY.deserialize(body);
+                if (raw instanceof List) rows.addAll((List<Object>) raw);
+            }
+
+            if (sort != null && !sort.isEmpty()) {
+                for (int i = 0; i < rows.size(); i++) {
+                    Object row = rows.get(i);
+                    if (row instanceof byte[]) rows.set(i, FORY.deserialize((byte[]) row)); // RemoteQuery accepts either form
+                }
+                rows.sort(rowComparator(sort));
+            }
+
+            int to = (limit > 0) ? Math.min(rows.size(), from + limit) : rows.size();
+            List<Object> page = (from >= to) ? new ArrayList<>() : new ArrayList<>(rows.subList(from, to));
+            return FORY.serialize(page);
+        });
+    }
+
+    /**
+     * Orders gathered rows by the query's sort fields. Rows are compared when they
+     * are maps; anything else keeps node order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Comparator<Object> rowComparator(Map<String, Object> sort) {
+        return (a, b) -> {
+            if (!(a instanceof Map) || !(b instanceof Map)) return 0;
+            Map<?, ?> left = (Map<?, ?>) a;
+            Map<?, ?> right = (Map<?, ?>) b;
+
+            for (Map.Entry<String, Object> s : sort.entrySet()) {
+                Object x = left.get(s.getKey());
+                Object y = right.get(s.getKey());
+                int c;
+                if (x == y) c = 0;
+                else if (x == null) c = -1;
+                else if (y == null) c = 1;
+                else if (x instanceof Number && y instanceof Number) c = Double.compare(((Number) x).doubleValue(), ((Number) y).doubleValue());
+                else if (x instanceof Comparable && x.getClass() == y.getClass()) c = ((Comparable) x).compareTo(y);
+                else c = String.valueOf(x).compareTo(String.valueOf(y));
+
+                if (c != 0) {
+                    boolean descending = s.getValue() instanceof Number && ((Number) s.getValue()).intValue() < 0;
+                    return descending ? -c : c;
+                }
+            }
+            return 0;
+        };
+    }
+
+    private static byte[] sumCounts(List<byte[]> bodies) {
+        long total = 0;
+        for (byte[] body : bodies) {
+            if (body != null && body.length > 0) total += Long.parseLong(new String(body, StandardCharsets.UTF_8).trim());
+        }
+        return Long.toString(total).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sameIds(List<byte[]> bodies) {
+        byte[] first = bodies.get(0);
+        for (byte[] body : bodies) {
+            if (!Arrays.equals(first, body)) {
+                throw new IllegalStateException("Shards assigned different ids for the same schema; " +
+                    "register databases and tables on every node in the same order");
+            }
+        }
+        return first;
+    }
+
+    private CompletableFuture<List<byte[]>> scatter(Node[] nodes, RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags, long timeoutMillis) {
+        List<CompletableFuture<byte[]>> parts = new ArrayList<>(nodes.length);
+        for (Node n : nodes) {
+            parts.add(n.connection.send(op, dbId, tableId, key, payload, flags, timeoutMillis));
+        }
+        return gather(parts);
+    }
+
+    private static CompletableFuture<List<byte[]>> gather(List<CompletableFuture<byte[]>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(v -> {
+            List<byte[]> bodies = new ArrayList<>(parts.size());
+            for (CompletableFuture<byte[]> part : parts) bodies.add(part.join());
+            return bodies;
+        });
+    }
+
+    @Override
+    public synchronized void setInvalidationCallback(InvalidationCallback callback) {
+        this.invalidationCallback = callback;
+        for (Node n : nodes) n.connection.setInvalidationCallback(callback);
+    }
+
+    @Override
+    public synchronized void setTableInvalidationCallback(TableInvalidationCallback callback) {
+        this.tableInvalidationCallback = callback;
+        for (Node n : nodes) n.connection.setTableInvalidationCallback(callback);
+    }
+
+    @Override
+    public void sendNoReply(RequestOp op, short dbId, short tableId, String key, PayloadWriter payload, byte flags) {
+        owner(nodes, dbId, tableId, key).connection.sendNoReply(op, dbId, tableId, key, payload, flags);
+    }
+
+    @Override
+    public synchronized void setNoReplyErrorListener(Consumer<Throwable> listener) {
+        this.noReplyErrorListener = listener;
+        for (Node n : nodes) n.connection.setNoReplyErrorListener(listener);
+    }
+
+    @Override
+    public void stop() {
+        for (Node n : nodes) n.connection.stop();
+    }
+}
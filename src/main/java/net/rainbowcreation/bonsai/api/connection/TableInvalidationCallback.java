@@ -0,0 +1,17 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.util.List;
+
+/**
+ * Receives invalidations addressed by numeric ids, as carried by batched
+ * invalidation pushes, so no name lookup is needed per key.
+ */
+@FunctionalInterface
+public interface TableInvalidationCallback {
+    /**
+     * @param dbId    the database id
+     * @param tableId the table id
+     * @param keys    the keys to invalidate; empty means the whole table
+     */
+    void onInvalidate(short dbId, short tableId, List<String> keys);
+}
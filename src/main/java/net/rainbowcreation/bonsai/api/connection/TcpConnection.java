@@ -1,59 +1,66 @@
 package net.rainbowcreation.bonsai.api.connection;
 
-import net.rainbowcreation.bonsai.connection.RequestOp;
 import net.rainbowcreation.bonsai.api.BonsApi;
-import net.rainbowcreation.bonsai.BonsaiRequest;
-import net.rainbowcreation.bonsai.BonsaiResponse;
 import net.rainbowcreation.bonsai.api.config.Config;
-import net.rainbowcreation.bonsai.api.util.ClientProfiler;
 import net.rainbowcreation.bonsai.util.ThreadUtil;
 
 import java.io.*;
 
 import java.net.Socket;
 
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-
-import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicInteger;
-
-public class TcpConnection implements Connection {
-    private final String host;
-    private final int port;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking transport: one socket and one dedicated reader thread per connection.
+ * Selected with {@code -Dbonsai.transport=blocking}.
+ *
+ * Writes are corked: producers append frames to {@code writeBuffer} and a single
+ * flusher drains it once {@link Config#WRITE_FLUSH_THRESHOLD} bytes or
+ * {@link Config#WRITE_FLUSH_MAX_FRAMES} frames are buffered, or when the stream
+ * goes idle. The idle window follows the observed gap between requests and only
+ * applies while other requests are in flight, so a lone request is written
+ * immediately while a burst shares one {@code write()}.
+ * Only the flusher touches the socket: appending never blocks, which lets admission
+ * dispatch queued requests from the reader and timer threads.
+ */
+public class TcpConnection extends PipelinedConnection {
     private Socket socket;
     private DataInputStream in;
     private DataOutputStream out;
-    private final AtomicInteger idGen;
-    private final Map<Integer, CompletableFuture<byte[]>> pendingRequests = new ConcurrentHashMap<>();
+    private byte[] frameBuffer = new byte[65536];
 
-    private final Semaphore pipelineLimit = new Semaphore(Config.PIPELINE_MAX_PENDING);
+    private static final long MAX_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Config.WRITE_FLUSH_INTERVAL_MS);
 
-    private byte[] writeBuffer = new byte[Config.WRITE_FLUSH_THRESHOLD];
-    private int writePosition = 0;
-    private final Object writeLock = new Object();
-    private final ScheduledExecutorService flusher;
+    private WireBuffer writeBuffer = new WireBuffer(Config.WRITE_FLUSH_THRESHOLD);
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition dataReady = writeLock.newCondition();
+    private final ExecutorService flusher;
     private final AtomicInteger pendingBytes = new AtomicInteger(0);
     private final AtomicInteger bufferedRequestCount = new AtomicInteger(0);
 
-    private final byte[] flushBuffer = new byte[Config.WRITE_FLUSH_THRESHOLD];
+    private long firstFrameNanos;
+    private long lastAppendNanos;
+    private long avgGapNanos = Long.MAX_VALUE / 4;
+    private boolean flushRequested = false;
 
-    private volatile boolean running = false;
-    private volatile InvalidationCallback invalidationCallback;
+    // Guarded by ioLock: whoever holds it swaps the buffers and writes, so chunks stay in order
+    private final ReentrantLock ioLock = new ReentrantLock();
+    private WireBuffer flushBuffer = new WireBuffer(Config.WRITE_FLUSH_THRESHOLD);
 
-    public TcpConnection(String host, int port, AtomicInteger idGen) {
-        this.host = host;
-        this.port = port;
-        this.idGen = idGen;
-        this.flusher = Executors.newSingleThreadScheduledExecutor(
+    public TcpConnection(String host, int port) {
+        super(host, port);
+        this.flusher = Executors.newSingleThreadExecutor(
             ThreadUtil.createThreadFactory("Bonsai-Flusher", true)
         );
         connect();
+        flusher.execute(this::flushLoop);
     }
 
-    private synchronized void connect() {
+    @Override
+    protected synchronized void connect() {
         if (running) return;
         try {
             closeQuietly();
@@ -64,13 +71,23 @@ public class TcpConnection implements Connection {
             this.socket.setReceiveBufferSize(Config.SOCKET_RECEIVE_BUFFER);
 
             this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
-            this.out = new DataOutputStream(socket.getOutputStream());
+            negotiateProtocol(socket, in, socket.getOutputStream());
 
-            this.running = true;
+            writeLock.lock();
+            try {
+                this.out = new DataOutputStream(socket.getOutputStream());
+                writeBuffer.reset();
+                pendingBytes.set(0);
+                bufferedRequestCount.set(0);
+            } finally {
+                writeLock.unlock();
+            }
+
+            onConnected();
 
             Thread t = ThreadUtil.newDaemonThread(this::readLoop, "Bonsai-Client-Reader");
             t.start();
-            BonsApi.LOGGER.info("Connected to " + host + ":" + port);
+            BonsApi.LOGGER.info("Connected to " + endpoint() + " (protocol v" + protocolVersion + ")");
         } catch (Exception e) {
             BonsApi.LOGGER.severe("Connection failed: " + e.getMessage());
         }
@@ -78,177 +95,173 @@ public class TcpConnection implements Connection {
 
     private void readLoop() {
         Socket mySocket = this.socket;
+        boolean compact = protocolVersion == FrameCodec.PROTOCOL_V2;
 
         while (running && !Thread.currentThread().isInterrupted()) {
             try {
                 if (mySocket != this.socket) return;
 
-                int len = in.readInt();
+                int len = compact ? FrameCodec.readVarInt(in) : in.readInt();
                 if (len < 0) throw new IOException("Invalid frame length");
 
-                byte[] data = new byte[len];
-                in.readFully(data);
-
-                ByteBuffer buf = ByteBuffer.wrap(data);
-                int receivedId = buf.getInt();
-
-                if (receivedId == -1) {
-                    BonsaiRequest push = BonsaiRequest.fromBytes(data);
-                    
-                    if ((push.op == RequestOp.INVALIDATE || push.op == RequestOp.CHANGE_EVENT) && invalidationCallback != null) {
-                        invalidationCallback.onInvalidate(push.db, push.table, push.key);
-                    }
-                    continue;
+                byte[] data = frameBuffer;
+                if (len > data.length) {
+                    data = new byte[len];
+                    if (len <= MAX_RETAINED_READ_BUFFER) frameBuffer = data;
                 }
+                in.readFully(data, 0, len);
 
-                BonsaiResponse res = BonsaiResponse.fromBytes(data);
-                CompletableFuture<byte[]> future = pendingRequests.remove(res.id);
-
-                ClientProfiler.onResponse(res.id);
-                pipelineLimit.release();
-
-                if (future != null) {
-                    if (res.status >= 400) {
-                        String msg = (res.body != null) ? new String(res.body, StandardCharsets.UTF_8) : "Unknown Error";
-                        future.completeExceptionally(new RuntimeException("Bonsai Error (" + res.status + "): " + msg));
-                    } else {
-                        future.complete(res.body);
-                    }
-                }
+                onFrame(data, 0, len);
             } catch (Exception e) {
                 if (!running) break;
 
                 BonsApi.LOGGER.severe("Stream Error: " + e.getMessage());
-                shutdownPending(e);
-
-                reconnect();
+                running = false;
+                closeQuietly();
+                onConnectionLost(e);
                 return;
             }
         }
     }
 
-    private void flushBuffer() {
-        if (pendingBytes.get() > 0) {
-            try {
-                doFlushFast();
-            } catch (IOException e) {
-                BonsApi.LOGGER.severe("Flush error: " + e.getMessage());
+    private void flushLoop() {
+        try {
+            while (!closed) {
+                writeLock.lockInterruptibly();
+                try {
+                    while (writeBuffer.position() == 0 && !closed) dataReady.await();
+                    if (writeBuffer.position() == 0) return;
+
+                    // Linger only while earlier requests await responses: a caller blocked on its
+                    // only request has nothing to share the write with, and waiting would stretch
+                    // the very gap the window is derived from
+                    while (!flushRequested && !closed && getPendingCount() > bufferedRequestCount.get()) {
+                        long deadline = Math.min(firstFrameNanos + MAX_DELAY_NANOS, lastAppendNanos + idleWindowNanos());
+                        long wait = deadline - System.nanoTime();
+                        if (wait <= 0) break;
+                        dataReady.awaitNanos(wait);
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+
+                ioLock.lock();
+                try {
+                    flushBuffered();
+                } finally {
+                    ioLock.unlock();
+                }
             }
+        } catch (InterruptedException ignored) {
         }
     }
 
-    private void doFlushFast() throws IOException {
-        if (out == null) return;
-
-        int bytesToWrite;
-        synchronized (writeLock) {
-            if (writePosition == 0) return;
-
-            System.arraycopy(writeBuffer, 0, flushBuffer, 0, writePosition);
-            bytesToWrite = writePosition;
-
-            writePosition = 0;
-            pendingBytes.set(0);
-            bufferedRequestCount.set(0);
-        }
-
-        out.write(flushBuffer, 0, bytesToWrite);
-        out.flush();
+    /**
+     * How long to wait for the next frame before flushing. Traffic sparser than the
+     * max delay gets no linger at all.
+     */
+    private long idleWindowNanos() {
+        long window = avgGapNanos * 2;
+        return window < MAX_DELAY_NANOS ? window : 0;
     }
 
-    private void doFlush() throws IOException {
-        if (writePosition > 0 && out != null) {
-            out.write(writeBuffer, 0, writePosition);
-            out.flush();
-            writePosition = 0;
-            pendingBytes.set(0);
-            bufferedRequestCount.set(0);
-        }
-    }
+    /**
+     * Swaps the buffers and writes everything buffered so far. Caller must hold ioLock.
+     */
+    private void flushBuffered() {
+        WireBuffer ready;
+        int len;
+        int frames;
+        DataOutputStream stream;
 
-    private void reconnect() {
-        running = false;
-        pipelineLimit.release(Config.PIPELINE_MAX_PENDING);
-        try { Thread.sleep(1000); } catch (InterruptedException ignored) {}
-        pipelineLimit.drainPermits();
-        for (int i = 0; i < Config.PIPELINE_MAX_PENDING; i++) {
-            pipelineLimit.release();
+        writeLock.lock();
+        try {
+            len = writeBuffer.position();
+            if (len == 0) return;
+            ready = writeBuffer;
+            writeBuffer = flushBuffer;
+            writeBuffer.reset();
+            flushBuffer = ready;
+            frames = bufferedRequestCount.getAndSet(0);
+            pendingBytes.set(0);
+            flushRequested = false;
+            stream = out;
+        } finally {
+            writeLock.unlock();
         }
-        connect();
-    }
 
-    private void shutdownPending(Throwable t) {
-        for (CompletableFuture<byte[]> f : pendingRequests.values()) {
-            f.completeExceptionally(t);
+        try {
+            stream.write(ready.array(), 0, len);
+            stream.flush();
+            flushStats.record(frames, len);
+        } catch (IOException e) {
+            BonsApi.LOGGER.severe("Flush error: " + e.getMessage());
+            closeQuietly(); // the reader sees the dead socket and fails the pending requests
         }
-        pendingRequests.clear();
     }
 
+    /**
+     * Appends the frame and leaves the socket write to the flusher. Admission bounds
+     * the bytes of tracked requests in flight; past {@code bonsai.pipeline.maxBytes}
+     * buffered, which only noreply writes can reach, the frame is rejected.
+     */
     @Override
-    public CompletableFuture<byte[]> send(RequestOp op, short dbId, short tableId, String key, byte[] payload, byte flags) {
-        if (!running) connect();
+    protected int write(PayloadWriter frame) throws IOException {
+        int totalSize;
 
+        writeLock.lock();
         try {
-            if (!pipelineLimit.tryAcquire(5, TimeUnit.SECONDS)) {
-                CompletableFuture<byte[]> failed = new CompletableFuture<>();
-                failed.completeExceptionally(new TimeoutException("Pipeline full"));
-                return failed;
+            if (!running || out == null) throw new IOException("Not connected");
+            if (writeBuffer.position() >= Config.PIPELINE_MAX_BYTES) {
+                flushRequested = true;
+                dataReady.signal();
+                throw new RejectedExecutionException("Write buffer full (" + writeBuffer.position() + " bytes waiting for the socket)");
             }
-        } catch (InterruptedException e) {
-            CompletableFuture<byte[]> failed = new CompletableFuture<>();
-            failed.completeExceptionally(e);
-            return failed;
-        }
 
-        int reqId = idGen.incrementAndGet();
-        BonsaiRequest req = new BonsaiRequest(op, dbId, tableId, key, payload, flags);
-        req.id = reqId;
-
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        pendingRequests.put(reqId, future);
-
-        try {
-            int dataLen = req.getSerializedSize();
-            int totalSize = 4 + dataLen;
-
-            synchronized (writeLock) {
-                if (!running || out == null) throw new IOException("Not connected");
-
-                
-                if (writePosition + totalSize > writeBuffer.length) {
-                    doFlush();
-                }
-
-                
-                writeBuffer[writePosition++] = (byte) (dataLen >>> 24);
-                writeBuffer[writePosition++] = (byte) (dataLen >>> 16);
-                writeBuffer[writePosition++] = (byte) (dataLen >>> 8);
-                writeBuffer[writePosition++] = (byte) dataLen;
+            int start = writeBuffer.position();
+            try {
+                frame.writeTo(writeBuffer);
+            } catch (RuntimeException e) {
+                writeBuffer.position(start); // drop the half-encoded frame
+                throw e;
+            }
+            totalSize = writeBuffer.position() - start;
 
-                int written = req.writeTo(writeBuffer, writePosition);
-                writePosition += written;
-                pendingBytes.addAndGet(totalSize);
+            long now = System.nanoTime();
+            long gap = Math.min(now - lastAppendNanos, MAX_DELAY_NANOS * 4);
+            avgGapNanos += (gap - avgGapNanos) >> 3;
+            lastAppendNanos = now;
 
-                doFlush();
+            int frames = bufferedRequestCount.incrementAndGet();
+            if (pendingBytes.addAndGet(totalSize) >= Config.WRITE_FLUSH_THRESHOLD || frames >= Config.WRITE_FLUSH_MAX_FRAMES) {
+                flushRequested = true;
             }
-        } catch (Exception e) {
-            pendingRequests.remove(reqId);
-            pipelineLimit.release();
-            future.completeExceptionally(e);
-        }
 
-        return future;
+            if (frames == 1) firstFrameNanos = now;
+            if (frames == 1 || flushRequested) dataReady.signal();
+        } finally {
+            writeLock.unlock();
+        }
+        return totalSize;
     }
 
-
     @Override
     public void stop() {
+        closed = true;
         running = false;
+        writeLock.lock();
+        try {
+            dataReady.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
         flusher.shutdown();
-        synchronized (writeLock) {
-            try {
-                doFlush();
-            } catch (IOException ignored) {}
+
+        ioLock.lock();
+        try {
+            if (out != null) flushBuffered();
+        } finally {
+            ioLock.unlock();
         }
         closeQuietly();
     }
@@ -256,19 +269,4 @@ public class TcpConnection implements Connection {
     private void closeQuietly() {
         try { if (socket != null) socket.close(); } catch (Exception ignored) {}
     }
-
-    /**
-     * Registers a callback to handle cache invalidation notifications from the server.
-     * This is required for client-side caching to work correctly.
-     *
-     * @param callback the invalidation callback
-     */
-    @Override
-    public void setInvalidationCallback(InvalidationCallback callback) {
-        this.invalidationCallback = callback;
-    }
-
-    public int getPendingCount() {
-        return pendingRequests.size();
-    }
 }
@@ -0,0 +1,217 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.util.ThreadUtil;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel for request deadlines and hedges. Scheduling and cancelling
+ * are O(1) and lock-free for the caller: new and cancelled timeouts are handed
+ * to the wheel thread through queues and applied on the next tick, so a
+ * request answered in time costs one enqueue and no timer thread wake-up.
+ * The wheel thread ticks only while timeouts are pending and parks otherwise;
+ * {@link #schedule} wakes it.
+ * <p>
+ * Timeouts fire within one tick (1 ms) of their deadline, on the wheel thread;
+ * tasks must be short and must not block.
+ */
+public final class TimerWheel {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int WHEEL_SIZE = 512;
+
+    private static volatile TimerWheel shared;
+
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private long tick;
+    private int pending; // Timeouts in buckets, owned by the wheel thread
+
+    public static TimerWheel shared() {
+        TimerWheel wheel = shared;
+        if (wheel == null) {
+            synchronized (TimerWheel.class) {
+                wheel = shared;
+                if (wheel == null) {
+                    shared = wheel = new TimerWheel("Bonsai-Timer");
+                }
+            }
+        }
+        return wheel;
+    }
+
+    public TimerWheel(String threadName) {
+        for (int i = 0; i < WHEEL_SIZE; i++) wheel[i] = new Bucket();
+        thread = ThreadUtil.newDaemonThread(this::run, threadName);
+        thread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        scheduled.offer(timeout);
+        if (parked) LockSupport.unpark(thread);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            if (pending == 0 && scheduled.isEmpty()) {
+                park();
+                continue;
+            }
+
+            long deadline = TICK_NANOS * (tick + 1);
+            long sleep = deadline - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            removeCancelled();
+            transferScheduled();
+            wheel[(int) (tick & (WHEEL_SIZE - 1))].expire(deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Sleeps until {@link #schedule} or {@link #stop} unparks the thread. The flag is
+     * raised before the queue is checked again, so a timeout offered meanwhile is
+     * either seen here or followed by an unpark. Ticks missed while parked had no
+     * timeouts, so the wheel just moves on to the current one.
+     */
+    private void park() {
+        parked = true;
+        if (running && scheduled.isEmpty()) LockSupport.park(this);
+        parked = false;
+        if (Thread.interrupted()) {
+            running = false;
+            return;
+        }
+        tick = Math.max(tick, (System.nanoTime() - startNanos) / TICK_NANOS);
+    }
+
+    private void removeCancelled() {
+        Timeout t;
+        while ((t = cancelled.poll()) != null) {
+            if (t.bucket != null) t.bucket.remove(t);
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout t;
+        while ((t = scheduled.poll()) != null) {
+            if (t.state.get() != Timeout.PENDING) continue;
+
+            long due = t.deadline / TICK_NANOS;
+            t.remainingRounds = (due - tick) / WHEEL_SIZE;
+            long slot = Math.max(due, tick); // already overdue: fire on this tick
+            wheel[(int) (slot & (WHEEL_SIZE - 1))].add(t);
+            pending++;
+        }
+    }
+
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerWheel timer;
+        private final Runnable task;
+        private final long deadline;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // Owned by the wheel thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimerWheel timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task already ran or was cancelled before
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+            timer.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+    }
+
+    /**
+     * Intrusive doubly-linked list of the timeouts hashed to one slot.
+     */
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        void expire(long deadline) {
+            Timeout t = head;
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.remainingRounds <= 0 && t.deadline <= deadline) {
+                    remove(t);
+                    if (t.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                        try {
+                            t.task.run();
+                        } catch (Throwable e) {
+                            BonsApi.LOGGER.warning("Timer task failed: " + e);
+                        }
+                    }
+                } else if (t.state.get() == Timeout.CANCELLED) {
+                    remove(t);
+                } else {
+                    t.remainingRounds--;
+                }
+                t = next;
+            }
+        }
+
+        void remove(Timeout t) {
+            if (t.bucket != this) return;
+            if (t.prev != null) t.prev.next = t.next; else head = t.next;
+            if (t.next != null) t.next.prev = t.prev; else tail = t.prev;
+            t.prev = t.next = null;
+            t.bucket = null;
+            pending--;
+        }
+    }
+}
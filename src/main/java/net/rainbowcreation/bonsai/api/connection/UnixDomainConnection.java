@@ -0,0 +1,43 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.io.IOException;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Placeholder for runtimes before Java 21: the Unix domain transport ships in the
+ * multi-release jar's Java 21 layer. Here {@link #isSupported()} is false and
+ * {@code BonsApi} stays on TCP.
+ */
+public class UnixDomainConnection extends NioConnection {
+    public static final String[] DEFAULT_PATHS = {"/run/bonsai/bonsai.sock", "/tmp/bonsai.sock"};
+
+    public UnixDomainConnection(String path) {
+        super(path, -1);
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @return always null, there is no socket this runtime can use
+     */
+    public static String resolvePath(String host) {
+        return null;
+    }
+
+    public static boolean isReachable(String path) {
+        return false;
+    }
+
+    @Override
+    protected String endpoint() {
+        return "unix:" + host;
+    }
+
+    @Override
+    protected SocketChannel open() throws IOException {
+        throw new IOException("Unix domain sockets need Java 21 or newer");
+    }
+}
@@ -0,0 +1,94 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+/**
+ * TCP Vegas style limiter. The queue the server is building up for this
+ * connection is estimated as {@code limit * (1 - minRtt / rtt)}: while it stays
+ * below {@code alpha} the window grows, once it passes {@code beta} it shrinks.
+ * Both thresholds scale with {@code log10(limit)} so large windows move in
+ * proportionally larger steps.
+ * <p>
+ * The baseline {@code minRtt} is re-probed every {@value #PROBE_MULTIPLIER} windows
+ * so a permanent latency change (new route, slower server) does not pin the limit.
+ * A dropped request cuts the window by {@value #BACKOFF_RATIO}, at most once per
+ * round trip so a burst of timeouts does not collapse it.
+ */
+final class VegasLimiter implements ConcurrencyLimiter {
+    private static final int PROBE_MULTIPLIER = 30;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private volatile double limit;
+    private volatile long minRttNanos = 0;
+    private long samplesUntilProbe;
+    private long lastBackoffNanos;
+
+    VegasLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.samplesUntilProbe = (long) initialLimit * PROBE_MULTIPLIER;
+        this.lastBackoffNanos = System.nanoTime() - Long.MAX_VALUE / 2; // nanoTime may be negative
+    }
+
+    @Override
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public long getMinRttNanos() {
+        return minRttNanos;
+    }
+
+    @Override
+    public synchronized void onSample(long rttNanos, int inFlight) {
+        if (rttNanos <= 0) return;
+
+        double current = limit;
+        if (--samplesUntilProbe <= 0) {
+            samplesUntilProbe = (long) current * PROBE_MULTIPLIER;
+            minRttNanos = rttNanos;
+            return;
+        }
+        if (minRttNanos == 0 || rttNanos < minRttNanos) {
+            minRttNanos = rttNanos;
+            return;
+        }
+
+        // An application that never fills the window tells us nothing about the server
+        if (inFlight * 2 < current) return;
+
+        double log = Math.max(1.0, Math.log10(current));
+        double queue = Math.ceil(current * (1.0 - (double) minRttNanos / rttNanos));
+
+        double next;
+        if (queue <= 3 * log) {
+            next = current + log;
+        } else if (queue >= 6 * log) {
+            next = current - log;
+        } else {
+            return;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    /**
+     * Drops carry no RTT of their own, so they are spaced by the baseline; before the
+     * first sample every drop cuts.
+     */
+    @Override
+    public synchronized void onDropped() {
+        long now = System.nanoTime();
+        if (now - lastBackoffNanos > minRttNanos) {
+            lastBackoffNanos = now;
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import java.util.Arrays;
+
+/**
+ * Growable big-endian byte sink. Transports use it as their outbound buffer so
+ * request payloads can be encoded in place instead of into intermediate arrays.
+ */
+public final class WireBuffer {
+    private byte[] buf;
+    private int pos;
+
+    public WireBuffer(int capacity) {
+        this.buf = new byte[Math.max(16, capacity)];
+    }
+
+    public byte[] array() {
+        return buf;
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    public void position(int position) {
+        this.pos = position;
+    }
+
+    public void reset() {
+        pos = 0;
+    }
+
+    /**
+     * Takes over an array that an external encoder grew while writing past {@link #position()}.
+     */
+    public void adopt(byte[] array, int position) {
+        this.buf = array;
+        this.pos = position;
+    }
+
+    public void ensure(int extra) {
+        int required = pos + extra;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length << 1, required));
+        }
+    }
+
+    public void putByte(int v) {
+        ensure(1);
+        buf[pos++] = (byte) v;
+    }
+
+    public void putShort(int v) {
+        ensure(2);
+        buf[pos++] = (byte) (v >>> 8);
+        buf[pos++] = (byte) v;
+    }
+
+    public void putInt(int v) {
+        ensure(4);
+        putIntAt(pos, v);
+        pos += 4;
+    }
+
+    public void putLong(long v) {
+        ensure(8);
+        putIntAt(pos, (int) (v >>> 32));
+        putIntAt(pos + 4, (int) v);
+        pos += 8;
+    }
+
+    public void putBytes(byte[] b) {
+        putBytes(b, 0, b.length);
+    }
+
+    public void putBytes(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Unsigned LEB128: 7 bits per byte, low bits first, high bit set on all but the last byte.
+     */
+    public void putVarInt(int v) {
+        ensure(5);
+        while ((v & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    /**
+     * Writes {@code s} as UTF-8 without an intermediate array. ASCII is stored a char per
+     * byte; the rest is encoded in place, with unpaired surrogates replaced by {@code '?'}
+     * like {@link String#getBytes} does.
+     *
+     * @return the number of bytes written, always {@link #utf8Length} of {@code s}
+     */
+    public int putUtf8(String s) {
+        int n = s.length();
+        ensure(n);
+        byte[] b = buf;
+        int start = pos;
+        int p = pos;
+        int i = 0;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) break;
+            b[p++] = (byte) c;
+        }
+
+        if (i < n) {
+            pos = p;
+            ensure((n - i) * 3);
+            b = buf;
+            for (; i < n; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    b[p++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[p++] = (byte) (0xC0 | (c >> 6));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[p++] = (byte) (0xF0 | (cp >> 18));
+                    b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    b[p++] = '?';
+                } else {
+                    b[p++] = (byte) (0xE0 | (c >> 12));
+                    b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+        pos = p;
+        return p - start;
+    }
+
+    /**
+     * The number of bytes {@link #putUtf8} writes for {@code s}, counted without encoding it.
+     */
+    public static int utf8Length(String s) {
+        int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) continue;
+            if (c < 0x800) {
+                len += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                len += 2; // 4 bytes for the pair
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                len += 2;
+            }
+        }
+        return len;
+    }
+
+    public static int varIntSize(int v) {
+        if ((v & ~0x7F) == 0) return 1;
+        if ((v & ~0x3FFF) == 0) return 2;
+        if ((v & ~0x1FFFFF) == 0) return 3;
+        if ((v & ~0xFFFFFFF) == 0) return 4;
+        return 5;
+    }
+
+    public void putIntAt(int index, int v) {
+        buf[index] = (byte) (v >>> 24);
+        buf[index + 1] = (byte) (v >>> 16);
+        buf[index + 2] = (byte) (v >>> 8);
+        buf[index + 3] = (byte) v;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+}
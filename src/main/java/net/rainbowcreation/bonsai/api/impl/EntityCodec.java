@@ -0,0 +1,639 @@
+package net.rainbowcreation.bonsai.api.impl;
+
+import net.rainbowcreation.bonsai.annotation.BonsaiIgnore;
+import net.rainbowcreation.bonsai.api.connection.WireBuffer;
+import net.rainbowcreation.bonsai.api.util.CastUtil;
+import net.rainbowcreation.bonsai.util.AUnsafe;
+import net.rainbowcreation.bonsai.util.ForyFactory;
+
+import org.apache.fory.ThreadSafeFory;
+import org.apache.fory.memory.MemoryBuffer;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Field layout of one entity class, resolved once per class: which fields are
+ * persisted, their raw offsets and how each one is read, converted and written.
+ * Encoding and decoding then run a flat loop over that table, reading and writing
+ * fields through {@code Unsafe} with a switch on a precomputed kind, instead of
+ * looking up {@link Field}s and going through {@code Field.get/set} on every value.
+ * <p>
+ * Values travel either as the field-name map, or, for tables whose schema the server
+ * accepted with {@link #rowVersion()}, as a positional row:
+ * {@code 0xBE version(4) nullBitmap fields*}. The bitmap has one bit per field, low bit
+ * first, set for null fields, which are then skipped. Fields follow in layout order:
+ * booleans and bytes take 1 byte, shorts and chars 2, ints and floats 4, longs and
+ * doubles 8, all big-endian; strings and enum names are {@code len(varint) + UTF-8},
+ * anything else is {@code len(varint)} plus its serializable form in Fory.
+ * The version is a checksum of the field names and types, so any change to the
+ * layout is a new version.
+ * <p>
+ * Rows of other versions, written before a field change or by clients that already
+ * run the next one, are decoded by field name: the server reports the layouts it
+ * knows as {@code count(2) [version(4) fieldCount(2) [nameLen(2) name typeLen(1) type]*]*},
+ * after the accepted version at registration or when asked for an unknown version.
+ * Fields this class no longer has are skipped and new ones keep their zero value.
+ */
+final class EntityCodec<T> extends AUnsafe {
+    private static final int BOOLEAN = 0;
+    private static final int BYTE = 1;
+    private static final int SHORT = 2;
+    private static final int CHAR = 3;
+    private static final int INT = 4;
+    private static final int LONG = 5;
+    private static final int FLOAT = 6;
+    private static final int DOUBLE = 7;
+    private static final int OBJECT = 8;
+    private static final int STRING = 9;
+    private static final int ENUM = 10;
+
+    private static final String[] KIND_NAMES = {
+        "boolean", "byte", "short", "char", "int", "long", "float", "double", "object", "string", "enum"
+    };
+
+    static final byte ROW_MAGIC = (byte) 0xBE;
+
+    private static final ThreadSafeFory FORY = ForyFactory.get();
+
+    private static final ClassValue<EntityCodec<?>> CODECS = new ClassValue<EntityCodec<?>>() {
+        @Override
+        protected EntityCodec<?> computeValue(Class<?> type) {
+            return new EntityCodec<>(type);
+        }
+    };
+
+    private static final class Slot {
+        final String name;
+        final long offset;
+        final int kind;         // Row encoding; boxed types share their primitive's kind
+        final boolean primitive;
+        final Class<?> type;
+
+        Slot(Field field) {
+            this.name = field.getName();
+            this.offset = unsafe.objectFieldOffset(field);
+            this.type = field.getType();
+            this.kind = kindOf(type);
+            this.primitive = type.isPrimitive();
+        }
+    }
+
+    private final Class<T> type;
+    private final Slot[] slots;
+    private final int mapCapacity;
+    private final int bitmapBytes;
+    private final int rowVersion;
+
+    // Other versions of this layout, as reported by the server
+    private final Map<Integer, Layout> layouts = new ConcurrentHashMap<>();
+    private final Map<Integer, CompletableFuture<Void>> loading = new ConcurrentHashMap<>();
+    private final Set<Integer> missing = ConcurrentHashMap.newKeySet(); // Server did not know them either
+
+    /**
+     * Field kinds of another row version, and the field of this class each one goes to.
+     */
+    private static final class Layout {
+        final int[] kinds;
+        final Slot[] targets; // Null where this class has no field of that name
+
+        Layout(int[] kinds, Slot[] targets) {
+            this.kinds = kinds;
+            this.targets = targets;
+        }
+    }
+
+    /**
+     * Asks the server for the layout of a row version; the answer is the usual
+     * {@code dbId(1) tableId(2)} followed by the layouts it knows.
+     */
+    interface LayoutLookup {
+        CompletableFuture<byte[]> lookup(int version);
+    }
+
+    private EntityCodec(Class<T> type) {
+        this.type = type;
+        List<Slot> list = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field f : c.getDeclaredFields()) {
+                if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
+                if (f.isAnnotationPresent(BonsaiIgnore.class)) continue;
+                list.add(new Slot(f));
+            }
+        }
+        this.slots = list.toArray(new Slot[0]);
+        this.mapCapacity = slots.length * 4 / 3 + 1;
+        this.bitmapBytes = (slots.length + 7) >>> 3;
+
+        CRC32 crc = new CRC32();
+        for (Slot slot : slots) {
+            crc.update((slot.name + ':' + KIND_NAMES[slot.kind] + ';').getBytes(StandardCharsets.UTF_8));
+        }
+        this.rowVersion = (int) crc.getValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> EntityCodec<T> of(Class<T> type) {
+        return (EntityCodec<T>) CODECS.get(type);
+    }
+
+    /**
+     * Whether values of {@code c} are encoded field by field.
+     */
+    static boolean isEntity(Class<?> c) {
+        return c != Object.class && !isPrimitiveOrBasic(c) && !c.isEnum() && !c.isArray() && !c.isInterface() &&
+               !Modifier.isAbstract(c.getModifiers()) && !Map.class.isAssignableFrom(c) && !Collection.class.isAssignableFrom(c);
+    }
+
+    static boolean isPrimitiveOrBasic(Class<?> c) {
+        return c.isPrimitive() || Number.class.isAssignableFrom(c) ||
+                Boolean.class == c || String.class == c || Character.class == c;
+    }
+
+    /**
+     * Converts any value to the plain maps, lists and basics the server understands:
+     * enums become their names, arrays become lists and entities become field maps.
+     */
+    static Object toSerializable(Object val) {
+        if (val == null) return null;
+        Class<?> c = val.getClass();
+        if (isPrimitiveOrBasic(c)) return val;
+        if (val instanceof Enum) return ((Enum<?>) val).name();
+
+        if (val instanceof Map) {
+            Map<String, Object> copy = new HashMap<>();
+            ((Map<?, ?>) val).forEach((k, v) -> copy.put(String.valueOf(k), toSerializable(v)));
+            return copy;
+        }
+        if (val instanceof List) {
+            List<?> list = (List<?>) val;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object o : list) copy.add(toSerializable(o));
+            return copy;
+        }
+        if (c.isArray()) {
+            int len = Array.getLength(val);
+            List<Object> copy = new ArrayList<>(len);
+            for (int i = 0; i < len; i++) copy.add(toSerializable(Array.get(val, i)));
+            return copy;
+        }
+        return of(c).toMap(val);
+    }
+
+    /**
+     * The field map of {@code value}; null fields are left out.
+     */
+    Map<String, Object> toMap(Object value) {
+        Map<String, Object> map = new HashMap<>(mapCapacity);
+        for (Slot s : slots) {
+            Object v = fieldValue(s, value);
+            if (v != null) map.put(s.name, v);
+        }
+        return map;
+    }
+
+    private static Object fieldValue(Slot s, Object value) {
+        switch (s.primitive ? s.kind : OBJECT) {
+            case BOOLEAN: return unsafe.getBoolean(value, s.offset);
+            case BYTE:    return unsafe.getByte(value, s.offset);
+            case SHORT:   return unsafe.getShort(value, s.offset);
+            case CHAR:    return unsafe.getChar(value, s.offset);
+            case INT:     return unsafe.getInt(value, s.offset);
+            case LONG:    return unsafe.getLong(value, s.offset);
+            case FLOAT:   return unsafe.getFloat(value, s.offset);
+            case DOUBLE:  return unsafe.getDouble(value, s.offset);
+            default:      return toSerializable(unsafe.getObject(value, s.offset));
+        }
+    }
+
+    /**
+     * Builds an instance without running a constructor and fills it from a field map.
+     * Missing fields keep their zero value.
+     *
+     * @throws IllegalArgumentException if a value cannot be converted to its field's type
+     */
+    @SuppressWarnings("unchecked")
+    T fromMap(Map<?, ?> map) throws InstantiationException {
+        T instance = (T) unsafe.allocateInstance(type);
+        for (Slot s : slots) {
+            Object v = map.get(s.name);
+            if (v != null) assign(instance, s, v);
+        }
+        return instance;
+    }
+
+    private static void assign(Object instance, Slot s, Object v) throws InstantiationException {
+        switch (s.primitive ? s.kind : OBJECT) {
+            case BOOLEAN: unsafe.putBoolean(instance, s.offset, toBoolean(v, s)); break;
+            case BYTE:    unsafe.putByte(instance, s.offset, toNumber(v, s).byteValue()); break;
+            case SHORT:   unsafe.putShort(instance, s.offset, toNumber(v, s).shortValue()); break;
+            case CHAR:    unsafe.putChar(instance, s.offset, toChar(v, s)); break;
+            case INT:     unsafe.putInt(instance, s.offset, toNumber(v, s).intValue()); break;
+            case LONG:    unsafe.putLong(instance, s.offset, toNumber(v, s).longValue()); break;
+            case FLOAT:   unsafe.putFloat(instance, s.offset, toNumber(v, s).floatValue()); break;
+            case DOUBLE:  unsafe.putDouble(instance, s.offset, toNumber(v, s).doubleValue()); break;
+            default:      unsafe.putObject(instance, s.offset, toObject(v, s));
+        }
+    }
+
+    /**
+     * Identifies this layout in positional rows and in schema registration.
+     */
+    int rowVersion() {
+        return rowVersion;
+    }
+
+    /**
+     * The row layout as registered with the server: name and type of each field, in order.
+     */
+    List<Map<String, Object>> rowSchema() {
+        List<Map<String, Object>> fields = new ArrayList<>(slots.length);
+        for (Slot s : slots) {
+            Map<String, Object> field = new HashMap<>();
+            field.put("name", s.name);
+            field.put("type", KIND_NAMES[s.kind]);
+            field.put("nullable", !s.primitive);
+            fields.add(field);
+        }
+        return fields;
+    }
+
+    static boolean isRow(byte[] bytes, int off, int len) {
+        return len >= 5 && bytes[off] == ROW_MAGIC;
+    }
+
+    void writeRow(WireBuffer out, Object value) {
+        out.putByte(ROW_MAGIC);
+        out.putInt(rowVersion);
+        int bitmap = out.position();
+        for (int i = 0; i < bitmapBytes; i++) out.putByte(0);
+
+        for (int i = 0; i < slots.length; i++) {
+            Slot s = slots[i];
+            Object v = null;
+            if (!s.primitive) {
+                v = unsafe.getObject(value, s.offset);
+                if (v == null) {
+                    out.array()[bitmap + (i >>> 3)] |= (byte) (1 << (i & 7));
+                    continue;
+                }
+            }
+
+            switch (s.kind) {
+                case BOOLEAN: out.putByte((s.primitive ? unsafe.getBoolean(value, s.offset) : (Boolean) v) ? 1 : 0); break;
+                case BYTE:    out.putByte(s.primitive ? unsafe.getByte(value, s.offset) : (Byte) v); break;
+                case SHORT:   out.putShort(s.primitive ? unsafe.getShort(value, s.offset) : (Short) v); break;
+                case CHAR:    out.putShort(s.primitive ? unsafe.getChar(value, s.offset) : (Character) v); break;
+                case INT:     out.putInt(s.primitive ? unsafe.getInt(value, s.offset) : (Integer) v); break;
+                case LONG:    out.putLong(s.primitive ? unsafe.getLong(value, s.offset) : (Long) v); break;
+                case FLOAT:   out.putInt(Float.floatToRawIntBits(s.primitive ? unsafe.getFloat(value, s.offset) : (Float) v)); break;
+                case DOUBLE:  out.putLong(Double.doubleToRawLongBits(s.primitive ? unsafe.getDouble(value, s.offset) : (Double) v)); break;
+                case STRING:  putString(out, (String) v); break;
+                case ENUM:    putString(out, ((Enum<?>) v).name()); break;
+                default:      putBytes(out, FORY.serialize(toSerializable(v)));
+            }
+        }
+    }
+
+    private static void putString(WireBuffer out, String s) {
+        out.putVarInt(WireBuffer.utf8Length(s));
+        out.putUtf8(s);
+    }
+
+    private static void putBytes(WireBuffer out, byte[] bytes) {
+        out.putVarInt(bytes.length);
+        out.putBytes(bytes);
+    }
+
+    /**
+     * Decodes a row written by {@link #writeRow} from a slice of a response body. Rows
+     * of another version are read by field name once their layout is known.
+     *
+     * @param lookup asks the server for unknown versions; null fails on them instead
+     * @throws PendingLoad if the row's layout is being looked up
+     * @throws IllegalStateException if neither this client nor the server knows the
+     * row's version, or the row is cut short
+     */
+    T readRow(byte[] bytes, int off, int len, LayoutLookup lookup) throws InstantiationException {
+        RowReader in = new RowReader(bytes, off + 1, off + len);
+        int version = in.readInt();
+        if (version == rowVersion) return readCurrent(bytes, in);
+
+        Layout layout = layouts.get(version);
+        if (layout != null) return readByName(bytes, in, layout);
+        if (lookup == null || missing.contains(version)) {
+            throw new IllegalStateException("Row schema version " + version + " of " + type.getSimpleName() +
+                " is unknown (current version " + rowVersion + ")");
+        }
+        throw new PendingLoad(load(version, lookup));
+    }
+
+    /**
+     * One lookup per version at a time; a version the server does not report is not asked for again.
+     */
+    private CompletableFuture<Void> load(int version, LayoutLookup lookup) {
+        CompletableFuture<Void> pending = loading.get(version);
+        if (pending != null) return pending;
+
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        pending = loading.putIfAbsent(version, created);
+        if (pending != null) return pending;
+
+        lookup.lookup(version).whenComplete((response, ex) -> {
+            Throwable failure = ex;
+            if (failure == null && response != null && response.length >= 3) {
+                try {
+                    addLayouts(ByteBuffer.wrap(response, 3, response.length - 3));
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            loading.remove(version, created);
+            if (failure != null) {
+                created.completeExceptionally(failure);
+                return;
+            }
+            if (!layouts.containsKey(version)) missing.add(version);
+            created.complete(null);
+        });
+        return created;
+    }
+
+    /**
+     * Keeps the layouts in {@code buf}, read from its position, so rows of those versions can be decoded.
+     */
+    void addLayouts(ByteBuffer buf) {
+        if (buf.remaining() < 2) return;
+        int count = buf.getShort() & 0xFFFF;
+        for (int n = 0; n < count && buf.remaining() >= 6; n++) {
+            int version = buf.getInt();
+            int fields = buf.getShort() & 0xFFFF;
+            int[] kinds = new int[fields];
+            Slot[] targets = new Slot[fields];
+            for (int i = 0; i < fields; i++) {
+                String name = readName(buf, buf.getShort() & 0xFFFF);
+                kinds[i] = kindNamed(readName(buf, buf.get() & 0xFF));
+                for (Slot s : slots) {
+                    if (s.name.equals(name)) targets[i] = s;
+                }
+            }
+            if (version != rowVersion) {
+                layouts.put(version, new Layout(kinds, targets));
+                missing.remove(version);
+            }
+        }
+    }
+
+    private static String readName(ByteBuffer buf, int len) {
+        if (len > buf.remaining()) throw new IllegalStateException("Truncated row layout");
+        String name = new String(buf.array(), buf.arrayOffset() + buf.position(), len, StandardCharsets.UTF_8);
+        buf.position(buf.position() + len);
+        return name;
+    }
+
+    private static int kindNamed(String name) {
+        for (int kind = 0; kind < KIND_NAMES.length; kind++) {
+            if (KIND_NAMES[kind].equals(name)) return kind;
+        }
+        throw new IllegalStateException("Unknown row field type " + name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T readByName(byte[] bytes, RowReader in, Layout layout) throws InstantiationException {
+        int fields = layout.kinds.length;
+        int bitmap = in.skip((fields + 7) >>> 3);
+
+        T instance = (T) unsafe.allocateInstance(type);
+        for (int i = 0; i < fields; i++) {
+            if ((bytes[bitmap + (i >>> 3)] & (1 << (i & 7))) != 0) continue;
+
+            Object v;
+            switch (layout.kinds[i]) {
+                case BOOLEAN: v = in.readByte() != 0; break;
+                case BYTE:    v = in.readByte(); break;
+                case SHORT:   v = (short) in.readShort(); break;
+                case CHAR:    v = (char) in.readShort(); break;
+                case INT:     v = in.readInt(); break;
+                case LONG:    v = in.readLong(); break;
+                case FLOAT:   v = Float.intBitsToFloat(in.readInt()); break;
+                case DOUBLE:  v = Double.longBitsToDouble(in.readLong()); break;
+                case STRING:
+                case ENUM:    v = in.readString(); break;
+                default: {
+                    int n = in.readVarInt();
+                    v = FORY.deserialize(MemoryBuffer.fromByteArray(bytes, in.skip(n), n));
+                }
+            }
+
+            Slot s = layout.targets[i];
+            if (s != null && v != null) assign(instance, s, v);
+        }
+        return instance;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T readCurrent(byte[] bytes, RowReader in) throws InstantiationException {
+        int bitmap = in.skip(bitmapBytes);
+
+        T instance = (T) unsafe.allocateInstance(type);
+        for (int i = 0; i < slots.length; i++) {
+            if ((bytes[bitmap + (i >>> 3)] & (1 << (i & 7))) != 0) continue;
+
+            Slot s = slots[i];
+            switch (s.kind) {
+                case BOOLEAN: {
+                    boolean v = in.readByte() != 0;
+                    if (s.primitive) unsafe.putBoolean(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case BYTE: {
+                    byte v = in.readByte();
+                    if (s.primitive) unsafe.putByte(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case SHORT: {
+                    short v = (short) in.readShort();
+                    if (s.primitive) unsafe.putShort(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case CHAR: {
+                    char v = (char) in.readShort();
+                    if (s.primitive) unsafe.putChar(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case INT: {
+                    int v = in.readInt();
+                    if (s.primitive) unsafe.putInt(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case LONG: {
+                    long v = in.readLong();
+                    if (s.primitive) unsafe.putLong(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case FLOAT: {
+                    float v = Float.intBitsToFloat(in.readInt());
+                    if (s.primitive) unsafe.putFloat(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case DOUBLE: {
+                    double v = Double.longBitsToDouble(in.readLong());
+                    if (s.primitive) unsafe.putDouble(instance, s.offset, v); else unsafe.putObject(instance, s.offset, v);
+                    break;
+                }
+                case STRING:
+                    unsafe.putObject(instance, s.offset, in.readString());
+                    break;
+                case ENUM:
+                    unsafe.putObject(instance, s.offset, CastUtil.coerce(in.readString(), s.type));
+                    break;
+                default: {
+                    int n = in.readVarInt();
+                    Object v = FORY.deserialize(MemoryBuffer.fromByteArray(bytes, in.skip(n), n));
+                    if (v != null) unsafe.putObject(instance, s.offset, toObject(v, s));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Bounds-checked cursor over one row.
+     */
+    private static final class RowReader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        RowReader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        /**
+         * @return the offset of the skipped bytes
+         */
+        int skip(int n) {
+            if (n < 0 || n > end - pos) throw new IllegalStateException("Truncated row");
+            int at = pos;
+            pos += n;
+            return at;
+        }
+
+        byte readByte() {
+            return buf[skip(1)];
+        }
+
+        int readShort() {
+            int at = skip(2);
+            return ((buf[at] & 0xFF) << 8) | (buf[at + 1] & 0xFF);
+        }
+
+        int readInt() {
+            int at = skip(4);
+            return ((buf[at] & 0xFF) << 24) | ((buf[at + 1] & 0xFF) << 16) |
+                   ((buf[at + 2] & 0xFF) << 8) | (buf[at + 3] & 0xFF);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IllegalStateException("Malformed varint in row");
+        }
+
+        String readString() {
+            int n = readVarInt();
+            return new String(buf, skip(n), n, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Object toObject(Object v, Slot s) throws InstantiationException {
+        if (s.type.isInstance(v)) return v;
+        if (v instanceof List && s.type.isArray()) return toArray((List<?>) v, s.type.getComponentType());
+
+        Object converted = v instanceof Map && isEntity(s.type)
+            ? of(s.type).fromMap((Map<?, ?>) v)
+            : CastUtil.coerce(v, s.type);
+        // Unsafe stores skip the type check Field.set would do
+        if (converted != null && !s.type.isInstance(converted)) throw mismatch(v, s);
+        return converted;
+    }
+
+    /**
+     * Arrays go out as lists; {@link Array#set} checks each element's type.
+     */
+    private static Object toArray(List<?> list, Class<?> component) throws InstantiationException {
+        Object array = Array.newInstance(component, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            Object e = list.get(i);
+            Array.set(array, i, e instanceof Map && isEntity(component)
+                ? of(component).fromMap((Map<?, ?>) e)
+                : CastUtil.coerce(e, component));
+        }
+        return array;
+    }
+
+    private static Number toNumber(Object v, Slot s) {
+        if (v instanceof Number) return (Number) v;
+        if (v instanceof Boolean) return (Boolean) v ? 1 : 0;
+        throw mismatch(v, s);
+    }
+
+    private static boolean toBoolean(Object v, Slot s) {
+        if (v instanceof Boolean) return (Boolean) v;
+        if (v instanceof Number) return ((Number) v).intValue() != 0;
+        if (v instanceof String) return Boolean.parseBoolean((String) v);
+        throw mismatch(v, s);
+    }
+
+    private static char toChar(Object v, Slot s) {
+        if (v instanceof Character) return (Character) v;
+        if (v instanceof String && ((String) v).length() == 1) return ((String) v).charAt(0);
+        if (v instanceof Number) return (char) ((Number) v).intValue();
+        throw mismatch(v, s);
+    }
+
+    private static IllegalArgumentException mismatch(Object v, Slot s) {
+        return new IllegalArgumentException("Cannot set " + s.type.getSimpleName() + " field " + s.name + " to " + v.getClass().getSimpleName());
+    }
+
+    private static int kindOf(Class<?> c) {
+        if (c == boolean.class) return BOOLEAN;
+        if (c == byte.class) return BYTE;
+        if (c == short.class) return SHORT;
+        if (c == char.class) return CHAR;
+        if (c == int.class) return INT;
+        if (c == long.class) return LONG;
+        if (c == float.class) return FLOAT;
+        if (c == double.class) return DOUBLE;
+        if (c == Boolean.class) return BOOLEAN;
+        if (c == Byte.class) return BYTE;
+        if (c == Short.class) return SHORT;
+        if (c == Character.class) return CHAR;
+        if (c == Integer.class) return INT;
+        if (c == Long.class) return LONG;
+        if (c == Float.class) return FLOAT;
+        if (c == Double.class) return DOUBLE;
+        if (c == String.class) return STRING;
+        if (c.isEnum()) return ENUM;
+        return OBJECT;
+    }
+}
@@ -0,0 +1,32 @@
+package net.rainbowcreation.bonsai.api.impl;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Thrown by a decode that first needs something from the server, such as the layout
+ * of a row version this client has not seen. The decode is run again once
+ * {@link #loaded} completes instead of blocking a worker thread on the load.
+ */
+final class PendingLoad extends RuntimeException {
+    final CompletableFuture<?> loaded;
+
+    PendingLoad(CompletableFuture<?> loaded) {
+        super(null, null, false, false);
+        this.loaded = loaded;
+    }
+
+    /**
+     * Runs {@code decode} now, and again on the worker pool after each load it waits for.
+     * Other failures are thrown straight from the first attempt.
+     */
+    static <R> CompletableFuture<R> decode(Supplier<R> decode) {
+        try {
+            return CompletableFuture.completedFuture(decode.get());
+        } catch (PendingLoad pending) {
+            return pending.loaded.thenComposeAsync(ignored -> decode(decode), BonsApi.WORKER_POOL);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package net.rainbowcreation.bonsai.api.impl;
+
+import net.rainbowcreation.bonsai.BonsaiFuture;
+import net.rainbowcreation.bonsai.BonsaiTable;
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.config.Config;
+import net.rainbowcreation.bonsai.api.connection.Connection;
+import net.rainbowcreation.bonsai.api.connection.WireBuffer;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects GET/SET/DELETE/EXISTS operations across the tables of one database
+ * and sends them as a single frame with a single multi-status response.
+ * <pre>{@code
+ * RemoteBatch batch = root.batch();
+ * BonsaiFuture<Profile> profile = batch.get(profiles, id);
+ * batch.set(stats, id, newStats).delete(sessions, id);
+ * batch.execute().get();
+ * }</pre>
+ * Payload: {@code count(4)}, then per operation
+ * {@code op(1) flags(1) table(2) keyLen(2) key [expiry(8)] [valueLen(4) value]}.
+ * Response: {@code count(4)}, then per operation {@code statusClass(1) bodyLen(4) body}.
+ * <p>
+ * When the server does not support batch frames, the operations are sent one by
+ * one instead, which keeps the results but not atomicity.
+ */
+public class RemoteBatch {
+    private final Connection connection;
+    private final short dbId;
+    private final List<Entry<?>> entries = new ArrayList<>();
+    private long timeoutMillis = Config.REQUEST_TIMEOUT_MS;
+    private boolean executed;
+
+    private static final class Entry<T> {
+        final RequestOp op;
+        final RemoteTable<T> table;
+        final String key;
+        final T value;
+        final long expiry;                   // Epoch millis, 0 without TTL
+        final CompletableFuture<Object> result; // Only for reads
+
+        Entry(RequestOp op, RemoteTable<T> table, String key, T value, long expiry, CompletableFuture<Object> result) {
+            this.op = op;
+            this.table = table;
+            this.key = key;
+            this.value = value;
+            this.expiry = expiry;
+            this.result = result;
+        }
+
+        byte flags() {
+            byte flags = (byte) (op == RequestOp.GET || op == RequestOp.EXISTS || table.isSafe() ? 0x01 : 0x00);
+            return expiry > 0 ? (byte) (flags | 0x02) : flags;
+        }
+    }
+
+    RemoteBatch(Connection connection, short dbId) {
+        this.connection = connection;
+        this.dbId = dbId;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> BonsaiFuture<T> get(BonsaiTable<T> table, String key) {
+        RemoteTable<T> remote = remote(table);
+        T cached = remote.getIfPresent(key);
+        if (cached != null) return BonsaiFuture.completed(cached);
+
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        entries.add(new Entry<>(RequestOp.GET, remote, key, null, 0, result));
+        return new BonsaiFuture<>((CompletableFuture<T>) (CompletableFuture<?>) result);
+    }
+
+    @SuppressWarnings("unchecked")
+    public BonsaiFuture<Boolean> exists(BonsaiTable<?> table, String key) {
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        entries.add(new Entry<>(RequestOp.EXISTS, remote(table), key, null, 0, result));
+        return new BonsaiFuture<>((CompletableFuture<Boolean>) (CompletableFuture<?>) result);
+    }
+
+    public <T> RemoteBatch set(BonsaiTable<T> table, String key, T value) {
+        return set(table, key, value, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param ttl time to live, 0 for none
+     */
+    public <T> RemoteBatch set(BonsaiTable<T> table, String key, T value, long ttl, TimeUnit unit) {
+        RemoteTable<T> remote = remote(table);
+        ClassCastException mismatch = remote.typeMismatch(value);
+        if (mismatch != null) throw mismatch;
+
+        long expiry = ttl > 0 ? System.currentTimeMillis() + unit.toMillis(ttl) : 0;
+        entries.add(new Entry<>(RequestOp.SET, remote, key, value, expiry, null));
+        return this;
+    }
+
+    public RemoteBatch delete(BonsaiTable<?> table, String key) {
+        entries.add(new Entry<>(RequestOp.DELETE, remote(table), key, null, 0, null));
+        return this;
+    }
+
+    public RemoteBatch timeout(long timeout, TimeUnit unit) {
+        this.timeoutMillis = unit.toMillis(timeout);
+        return this;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sends every collected operation. Completes once all have been answered and
+     * fails if any of them failed; the other operations still take effect.
+     */
+    public BonsaiFuture<Void> execute() {
+        return execute(false);
+    }
+
+    /**
+     * Like {@link #execute()}, but the server applies either every operation or none.
+     * Fails with {@link UnsupportedOperationException}, without sending or caching
+     * anything, if the server cannot apply batches atomically.
+     */
+    public BonsaiFuture<Void> executeAtomically() {
+        return execute(true);
+    }
+
+    /**
+     * Support for batch frames is only known after the first handshake, so the
+     * operations are sent once {@link Connection#negotiated()} completes rather
+     * than waiting for it on the caller's thread.
+     */
+    private BonsaiFuture<Void> execute(boolean atomic) {
+        if (executed) throw new IllegalStateException("Batch was already executed");
+        executed = true;
+
+        if (entries.isEmpty()) return BonsaiFuture.completed(null);
+
+        CompletableFuture<Void> negotiated = connection.negotiated();
+        if (negotiated.isDone()) return new BonsaiFuture<>(send(atomic));
+        return new BonsaiFuture<>(negotiated.thenComposeAsync(ignored -> send(atomic), BonsApi.WORKER_POOL));
+    }
+
+    private CompletableFuture<Void> send(boolean atomic) {
+        boolean batched = connection.supportsBatch();
+        if (atomic && !batched) {
+            UnsupportedOperationException unsupported = new UnsupportedOperationException("Atomic batches need a server with batch support");
+            failAll(unsupported);
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(unsupported);
+            return failed;
+        }
+
+        for (Entry<?> e : entries) {
+            if (e.op == RequestOp.SET) {
+                put(e);
+            } else if (e.op == RequestOp.DELETE) {
+                e.table.invalidate(e.key);
+            }
+        }
+
+        if (!batched) return executeSeparately();
+
+        CompletableFuture<byte[]> io = connection.sendBatch(dbId, this::encode, atomic, timeoutMillis);
+        return io.handleAsync((body, ex) -> {
+            if (ex != null) {
+                failAll(ex);
+                throw new RuntimeException(ex);
+            }
+            complete(body);
+            return null;
+        }, BonsApi.WORKER_POOL);
+    }
+
+    private void encode(WireBuffer out) {
+        out.putInt(entries.size());
+        for (Entry<?> e : entries) encodeEntry(out, e);
+    }
+
+    private static <T> void encodeEntry(WireBuffer out, Entry<T> e) {
+        out.putByte(e.op.getByte());
+        out.putByte(e.flags());
+        out.putShort(e.table.tableId);
+        out.putShort(WireBuffer.utf8Length(e.key));
+        out.putUtf8(e.key);
+        if (e.op != RequestOp.SET) return;
+
+        if (e.expiry > 0) out.putLong(e.expiry);
+        int lenAt = out.position();
+        out.putInt(0);
+        e.table.writeValue(out, e.value);
+        out.putIntAt(lenAt, out.position() - lenAt - 4);
+    }
+
+    private void complete(byte[] body) {
+        int resolved = 0;
+        try {
+            if (body == null || body.length < 4) throw new IllegalStateException("Truncated batch response");
+
+            int count = readInt(body, 0);
+            if (count != entries.size()) {
+                throw new IllegalStateException("Batch response has " + count + " results for " + entries.size() + " operations");
+            }
+
+            RuntimeException firstError = null;
+            int failed = 0;
+            int pos = 4;
+            for (Entry<?> e : entries) {
+                if (pos > body.length - 5) throw new IllegalStateException("Truncated batch response at result " + resolved);
+                int statusClass = body[pos] & 0xFF;
+                int len = readInt(body, pos + 1);
+                pos += 5;
+                if (len < 0 || len > body.length - pos) {
+                    throw new IllegalStateException("Batch result " + resolved + " claims " + len + " bytes, " + (body.length - pos) + " left");
+                }
+
+                if (statusClass != 0) {
+                    String msg = len > 0 ? new String(body, pos, len, StandardCharsets.UTF_8) : "Unknown Error";
+                    RuntimeException error = new RuntimeException("Bonsai Error (" + statusClass * 100 + ") in batch " + e.op + " " + e.key + ": " + msg);
+                    fail(e, error);
+                    if (firstError == null) firstError = error;
+                    failed++;
+                } else if (e.op == RequestOp.GET) {
+                    if (len == 0) {
+                        e.result.complete(null);
+                    } else {
+                        int at = pos;
+                        forward(PendingLoad.decode(() -> e.table.decodeResult(e.key, body, at, len)), e.result);
+                    }
+                } else if (e.op == RequestOp.EXISTS) {
+                    e.result.complete(len > 0 && body[pos] == 1);
+                }
+                pos += len;
+                resolved++;
+            }
+
+            if (firstError != null) {
+                throw new RuntimeException(failed + " of " + entries.size() + " batch operations failed", firstError);
+            }
+        } catch (RuntimeException ex) {
+            // Entries after the point of failure would otherwise never complete, and
+            // their optimistically cached values would outlive a write that never happened
+            for (int i = resolved; i < entries.size(); i++) fail(entries.get(i), ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Fallback for servers without batch frames: pipelines the operations individually.
+     */
+    private CompletableFuture<Void> executeSeparately() {
+        CompletableFuture<?>[] all = new CompletableFuture<?>[entries.size()];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = sendSeparately(entries.get(i));
+        }
+        return CompletableFuture.allOf(all);
+    }
+
+    private static <T> CompletableFuture<?> sendSeparately(Entry<T> e) {
+        switch (e.op) {
+            case GET:
+                return forward(e.table.getAsync(e.key).asCompletable(), e.result);
+            case EXISTS:
+                return forward(e.table.existsAsync(e.key).asCompletable(), e.result);
+            case SET:
+                return e.expiry > 0
+                    ? e.table.setAsync(e.key, e.value, Math.max(1, e.expiry - System.currentTimeMillis()), TimeUnit.MILLISECONDS).asCompletable()
+                    : e.table.setAsync(e.key, e.value).asCompletable();
+            default:
+                return e.table.deleteAsync(e.key).asCompletable();
+        }
+    }
+
+    private static <R> CompletableFuture<R> forward(CompletableFuture<R> from, CompletableFuture<Object> to) {
+        return from.whenComplete((value, ex) -> {
+            if (ex != null) to.completeExceptionally(ex);
+            else to.complete(value);
+        });
+    }
+
+    private void failAll(Throwable ex) {
+        for (Entry<?> e : entries) fail(e, ex);
+    }
+
+    private static void fail(Entry<?> e, Throwable ex) {
+        if (e.result != null) {
+            e.result.completeExceptionally(ex);
+        } else if (e.op == RequestOp.SET) {
+            e.table.invalidate(e.key);
+        }
+    }
+
+    private static <T> void put(Entry<T> e) {
+        e.table.put(e.key, e.value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> RemoteTable<T> remote(BonsaiTable<T> table) {
+        if (executed) throw new IllegalStateException("Batch was already executed");
+        if (!(table instanceof RemoteTable)) {
+            throw new IllegalArgumentException("Batches only take tables of a remote root, got " + table.getClass().getSimpleName());
+        }
+        RemoteTable<T> remote = (RemoteTable<T>) table;
+        if (remote.connection() != connection || remote.dbId != dbId) {
+            throw new IllegalArgumentException("All tables of a batch must belong to the database it was created from");
+        }
+        return remote;
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) |
+               ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+}
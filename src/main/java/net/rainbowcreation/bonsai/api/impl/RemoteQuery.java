@@ -2,32 +2,28 @@ package net.rainbowcreation.bonsai.api.impl;
 
 import net.rainbowcreation.bonsai.api.BonsApi;
 import net.rainbowcreation.bonsai.BonsaiFuture;
-import net.rainbowcreation.bonsai.annotation.BonsaiIgnore;
+import net.rainbowcreation.bonsai.api.config.Config;
 import net.rainbowcreation.bonsai.api.connection.Connection;
 import net.rainbowcreation.bonsai.connection.RequestOp;
 import net.rainbowcreation.bonsai.query.*;
-import net.rainbowcreation.bonsai.api.util.CastUtil;
-import net.rainbowcreation.bonsai.util.AUnsafe;
 import net.rainbowcreation.bonsai.util.ForyFactory;
 import net.rainbowcreation.bonsai.util.JsonUtil;
 
 import org.apache.fory.ThreadSafeFory;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-
 import java.nio.charset.StandardCharsets;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 
-public class RemoteQuery<T> extends AUnsafe implements Query<T> {
+public class RemoteQuery<T> implements Query<T> {
 
     private final Connection conn;
     private final short dbId;
     private final short tableId;
     private final Class<T> type;
+    private final long timeoutMillis;
+    private final EntityCodec.LayoutLookup layouts;  // Null fails on row versions this client has not seen
     private static final ThreadSafeFory FORY = ForyFactory.get();
 
     private final SearchCriteria rootCriteria = new SearchCriteria();
@@ -36,13 +32,21 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
     private final Map<String, Integer> sorts = new HashMap<>();
     private List<String> selectFields;
 
-    private static final Map<Class<?>, List<Field>> fieldCache = new ConcurrentHashMap<>();
-
     public RemoteQuery(Connection conn, short dbId, short tableId, Class<T> type) {
+        this(conn, dbId, tableId, type, Config.REQUEST_TIMEOUT_MS);
+    }
+
+    public RemoteQuery(Connection conn, short dbId, short tableId, Class<T> type, long timeoutMillis) {
+        this(conn, dbId, tableId, type, timeoutMillis, null);
+    }
+
+    RemoteQuery(Connection conn, short dbId, short tableId, Class<T> type, long timeoutMillis, EntityCodec.LayoutLookup layouts) {
         this.conn = conn;
         this.dbId = dbId;
         this.tableId = tableId;
         this.type = type;
+        this.timeoutMillis = timeoutMillis;
+        this.layouts = layouts;
     }
 
     @Override
@@ -98,41 +102,48 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
 
         byte[] reqBytes = JsonUtil.toJson(payloadMap).getBytes(StandardCharsets.UTF_8);
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_GET, dbId, tableId, null, reqBytes, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_GET, dbId, tableId, null, reqBytes, (byte) 0x01, timeoutMillis);
 
         return new BonsaiFuture<>(io.handleAsync((bytes, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
-            if (bytes == null || bytes.length == 0) return new ArrayList<>();
+            if (bytes == null || bytes.length == 0) return CompletableFuture.<List<T>>completedFuture(new ArrayList<>());
 
             Object raw = FORY.deserialize(bytes);
-            if (!(raw instanceof List)) return new ArrayList<>();
-            List<?> rawList = (List<?>) raw;
-
-            List<T> result = new ArrayList<>(rawList.size());
-            for (Object item : rawList) {
-                if (item == null) continue;
-
-                if (item instanceof byte[]) {
-                    Object deserialized = FORY.deserialize((byte[]) item);
-                    if (deserialized == null) continue;
-
-                    if (type.isInstance(deserialized)) {
-                        result.add(type.cast(deserialized));
-                    }
-                    else if (deserialized instanceof Map) {
-                        result.add(mapToPojo((Map<?, ?>) deserialized, type));
-                    }
+            if (!(raw instanceof List)) return CompletableFuture.<List<T>>completedFuture(new ArrayList<>());
+            return PendingLoad.decode(() -> decodeList((List<?>) raw));
+        }, BonsApi.WORKER_POOL).thenCompose(decoded -> decoded));
+    }
+
+    private List<T> decodeList(List<?> rawList) {
+        List<T> result = new ArrayList<>(rawList.size());
+        for (Object item : rawList) {
+            if (item == null) continue;
+
+            if (item instanceof byte[]) {
+                byte[] stored = (byte[]) item;
+                if (EntityCodec.isRow(stored, 0, stored.length) && EntityCodec.isEntity(type)) {
+                    result.add(readRow(stored));
+                    continue;
                 }
-                else if (type.isInstance(item)) {
-                    result.add(type.cast(item));
+
+                Object deserialized = FORY.deserialize(stored);
+                if (deserialized == null) continue;
+
+                if (type.isInstance(deserialized)) {
+                    result.add(type.cast(deserialized));
                 }
-                else if (item instanceof Map) {
-                    result.add(mapToPojo((Map<?, ?>) item, type));
+                else if (deserialized instanceof Map) {
+                    result.add(mapToPojo((Map<?, ?>) deserialized, type));
                 }
             }
-            return result;
-
-        }, BonsApi.WORKER_POOL));
+            else if (type.isInstance(item)) {
+                result.add(type.cast(item));
+            }
+            else if (item instanceof Map) {
+                result.add(mapToPojo((Map<?, ?>) item, type));
+            }
+        }
+        return result;
     }
 
     @Override
@@ -142,7 +153,7 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
 
         byte[] reqBytes = JsonUtil.toJson(payloadMap).getBytes(StandardCharsets.UTF_8);
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_COUNT, dbId, tableId, null, reqBytes, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_COUNT, dbId, tableId, null, reqBytes, (byte) 0x01, timeoutMillis);
 
         return new BonsaiFuture<>(io.handleAsync((bytes, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
@@ -156,7 +167,7 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
         UpdatePayload payloadObj = new UpdatePayload(rootCriteria.buildRoot(), updates);
         byte[] reqBytes = JsonUtil.toJson(payloadObj).getBytes(StandardCharsets.UTF_8);
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_UPDATE, dbId, tableId, null, reqBytes, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_UPDATE, dbId, tableId, null, reqBytes, (byte) 0x01, timeoutMillis);
 
         return new BonsaiFuture<>(io.handleAsync((res, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
@@ -175,7 +186,7 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
         payloadMap.put("filter", rootCriteria.buildRoot());
 
         byte[] reqBytes = JsonUtil.toJson(payloadMap).getBytes(StandardCharsets.UTF_8);
-        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_DELETE, dbId, tableId, null, reqBytes, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.QUERY_DELETE, dbId, tableId, null, reqBytes, (byte) 0x01, timeoutMillis);
 
         return new BonsaiFuture<>(io.handleAsync((res, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
@@ -183,33 +194,20 @@ public class RemoteQuery<T> extends AUnsafe implements Query<T> {
         }, BonsApi.WORKER_POOL));
     }
 
-    @SuppressWarnings("unchecked")
+    private T readRow(byte[] bytes) {
+        try {
+            return EntityCodec.of(type).readRow(bytes, 0, bytes.length, layouts);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Cannot instantiate " + type.getSimpleName(), e);
+        }
+    }
+
     private T mapToPojo(Map<?, ?> map, Class<T> clazz) {
         try {
-            T instance = (T) unsafe.allocateInstance(clazz);
-            for (Field f : getCachedFields(clazz)) {
-                Object val = map.get(f.getName());
-                if (val != null) {
-                    f.set(instance, CastUtil.coerce(val, f.getType()));
-                }
-            }
-            return instance;
+            return EntityCodec.of(clazz).fromMap(map);
         } catch (Exception e) {
             String json = JsonUtil.toJson(map);
             return JsonUtil.fromJson(json, clazz);
         }
     }
-
-    private List<Field> getCachedFields(Class<?> clazz) {
-        return fieldCache.computeIfAbsent(clazz, c -> {
-            List<Field> list = new ArrayList<>();
-            for (Field f : c.getDeclaredFields()) {
-                if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
-                if (f.isAnnotationPresent(BonsaiIgnore.class)) continue;
-                f.setAccessible(true);
-                list.add(f);
-            }
-            return list;
-        });
-    }
-}
\ No newline at end of file
+}
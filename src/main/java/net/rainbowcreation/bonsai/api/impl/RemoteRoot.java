@@ -27,6 +27,8 @@ public class RemoteRoot implements BonsaiRoot {
     private final String db;
 
     private final Map<String, RemoteTable<?>> cachedTables = new ConcurrentHashMap<>();
+    private final Map<Short, RemoteTable<?>> cachedTablesById = new ConcurrentHashMap<>();
+    private final Set<String> rowTables = ConcurrentHashMap.newKeySet();  // Server accepted their row layout
     private volatile boolean invalidationCallbackRegistered = false;
 
     
@@ -48,7 +50,8 @@ public class RemoteRoot implements BonsaiRoot {
         short tableId = scanAndRegisterSchema(type);
         short dbId = getOrRegisterDatabaseId();
 
-        RemoteTable<T> table = new RemoteTable<>(connection, dbId, tableId, db, type.getSimpleName(), type, safe);
+        RemoteTable<T> table = new RemoteTable<>(connection, dbId, tableId, db, type.getSimpleName(), type, safe,
+            rowTables.contains(type.getSimpleName()));
         if (Config.CACHE_ENABLED) {
             return createCachedTable(table, type.getSimpleName());
         }
@@ -83,15 +86,26 @@ public class RemoteRoot implements BonsaiRoot {
             tableId = getOrRegisterTableId(tableName);
         }
 
-        RemoteTable<T> table = new RemoteTable<>(connection, dbId, tableId, db, tableName, type == null ? (Class<T>) Object.class : type, safe);
+        boolean rows = type != null && rowTables.contains(type.getSimpleName());
+        RemoteTable<T> table = new RemoteTable<>(connection, dbId, tableId, db, tableName, type == null ? (Class<T>) Object.class : type, safe, rows);
         if (Config.CACHE_ENABLED) {
             return createCachedTable(table, tableName);
         }
         return table;
     }
 
+    /**
+     * Starts a batch of operations on tables of this database, sent as one frame.
+     */
+    public RemoteBatch batch() {
+        return new RemoteBatch(connection, getOrRegisterDatabaseId());
+    }
+
     /**
      * Scan class and register schema, returning the table ID.
+     * When the connection supports rows, the class's row layout is offered along
+     * with the columns; a server that accepts it echoes its version after the IDs,
+     * followed by the other versions of the layout it still holds rows of.
      */
     private short scanAndRegisterSchema(Class<?> type) {
         String tableName = type.getSimpleName();
@@ -155,6 +169,17 @@ public class RemoteRoot implements BonsaiRoot {
         payload.put("table", tableName);
         payload.put("columns", columns);
 
+        Integer rowVersion = null;
+        if (Config.ROW_FORMAT && connection.supportsRows() && EntityCodec.isEntity(type)) {
+            EntityCodec<?> codec = EntityCodec.of(type);
+            rowVersion = codec.rowVersion();
+
+            Map<String, Object> row = new HashMap<>();
+            row.put("version", rowVersion);
+            row.put("fields", codec.rowSchema());
+            payload.put("row", row);
+        }
+
         byte[] bytes = JsonUtil.toJson(payload).getBytes(StandardCharsets.UTF_8);
 
         try {
@@ -166,6 +191,10 @@ public class RemoteRoot implements BonsaiRoot {
                 short dbId = (short) (buf.get() & 0xFF);
                 short tableId = buf.getShort();
 
+                if (rowVersion != null && buf.remaining() >= 4 && buf.getInt() == rowVersion) {
+                    EntityCodec.of(type).addLayouts(buf);
+                    rowTables.add(tableName);
+                }
 
                 idRegistry.registerDatabase(db, dbId);
                 idRegistry.registerTable(db, tableName, tableId);
@@ -288,6 +317,7 @@ public class RemoteRoot implements BonsaiRoot {
             synchronized (this) {
                 if (!invalidationCallbackRegistered) {
                     connection.setInvalidationCallback(this::handleInvalidation);
+                    connection.setTableInvalidationCallback(this::handleTableInvalidation);
                     invalidationCallbackRegistered = true;
                     BonsApi.LOGGER.info("Client-side cache enabled for database: " + db);
                 }
@@ -295,6 +325,7 @@ public class RemoteRoot implements BonsaiRoot {
         }
 
         cachedTables.put(tableName, remoteTable);
+        cachedTablesById.put(remoteTable.tableId, remoteTable);
 
         try {
             connection.send(RequestOp.SUBSCRIBE, remoteTable.dbId, remoteTable.tableId, null, null, (byte) 0x01)
@@ -321,4 +352,20 @@ public class RemoteRoot implements BonsaiRoot {
             }
         }
     }
-}
\ No newline at end of file
+
+    private void handleTableInvalidation(short dbId, short tableId, List<String> keys) {
+        Short ownDbId = cachedDbId;
+        if (ownDbId == null || ownDbId != dbId) {
+            return;
+        }
+
+        RemoteTable<?> table = cachedTablesById.get(tableId);
+        if (table != null) {
+            if (keys.isEmpty()) {
+                table.invalidateAll();
+            } else {
+                for (String key : keys) table.invalidate(key);
+            }
+        }
+    }
+}
@@ -3,9 +3,11 @@ package net.rainbowcreation.bonsai.api.impl;
 import net.rainbowcreation.bonsai.api.BonsApi;
 import net.rainbowcreation.bonsai.BonsaiFuture;
 import net.rainbowcreation.bonsai.BonsaiTable;
-import net.rainbowcreation.bonsai.annotation.BonsaiIgnore;
 import net.rainbowcreation.bonsai.api.config.Config;
 import net.rainbowcreation.bonsai.api.connection.Connection;
+import net.rainbowcreation.bonsai.api.connection.PayloadWriter;
+import net.rainbowcreation.bonsai.api.connection.WireBuffer;
+import net.rainbowcreation.bonsai.api.util.CastUtil;
 import net.rainbowcreation.bonsai.connection.RequestOp;
 import net.rainbowcreation.bonsai.query.Query;
 import net.rainbowcreation.bonsai.util.AUnsafe;
@@ -16,10 +18,7 @@ import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 
 import org.apache.fory.ThreadSafeFory;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import org.apache.fory.memory.MemoryBuffer;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -28,6 +27,7 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
 
 public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
     private final Connection conn;
@@ -35,9 +35,13 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
     public final short dbId, tableId;  // Compact IDs for wire protocol
     private final Class<T> type;
     private final boolean safe;  // If true, wait for WAL and broadcast. If false, fire-and-forget.
+    private final boolean noReply;  // Unsafe writes skip the response entirely
+    private final long timeoutMillis;  // Per-request deadline, <= 0 waits forever
+    private final EntityCodec<T> codec;  // Null unless T is encoded field by field
+    private final boolean rows;  // Values are written as positional rows of codec's layout
+    private final TypeDictionary types;  // Class ids of a mixed-type table, null if not negotiated
 
     private static final ThreadSafeFory FORY = ForyFactory.get();
-    private static final Map<Class<?>, List<Field>> fieldCache = new ConcurrentHashMap<>();
 
     private static final byte MAGIC_BYTE = (byte) 0xBF;  // Bonsai Fast encoding marker
 
@@ -45,6 +49,40 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
     private static final byte TYPE_INTEGER = 0x02;   // 4-byte big-endian int32
     private static final byte TYPE_LONG = 0x03;      // 8-byte big-endian int64
     private static final byte TYPE_BOOLEAN = 0x04;   // 1-byte: 0x00 or 0x01
+    private static final byte TYPE_DOUBLE = 0x05;    // 8-byte IEEE 754 bits
+    private static final byte TYPE_FLOAT = 0x06;     // 4-byte IEEE 754 bits
+    private static final byte TYPE_SHORT = 0x07;     // 2-byte big-endian int16
+    private static final byte TYPE_BYTE = 0x08;      // 1 byte
+    private static final byte TYPE_ENUM = 0x09;      // 2-byte ordinal + 4-byte checksum of the constant names
+    private static final byte TYPE_BYTES = 0x0A;     // Length-prefixed raw bytes
+    private static final byte TYPE_UUID = 0x0B;      // 8-byte most + 8-byte least significant bits
+    private static final byte TYPE_INT_ARRAY = 0x0C;    // Length-prefixed int32s
+    private static final byte TYPE_LONG_ARRAY = 0x0D;   // Length-prefixed int64s
+    private static final byte TYPE_DOUBLE_ARRAY = 0x0E; // Length-prefixed IEEE 754 bits
+
+    private static final Map<String, Class<?>> CLASSES_BY_NAME = new ConcurrentHashMap<>();
+
+    private static final ClassValue<EnumSchema> ENUM_SCHEMAS = new ClassValue<EnumSchema>() {
+        @Override
+        protected EnumSchema computeValue(Class<?> type) {
+            return new EnumSchema(type);
+        }
+    };
+
+    private static final class EnumSchema {
+        final Object[] constants;
+        final int checksum;
+
+        EnumSchema(Class<?> type) {
+            this.constants = type.getEnumConstants();
+            CRC32 crc = new CRC32();
+            for (Object constant : constants) {
+                crc.update(((Enum<?>) constant).name().getBytes(StandardCharsets.UTF_8));
+                crc.update(0);
+            }
+            this.checksum = (int) crc.getValue();
+        }
+    }
 
     private final Cache<String, T> cache;
 
@@ -57,6 +95,13 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
     }
 
     public RemoteTable(Connection conn, short dbId, short tableId, String db, String table, Class<T> type, boolean safe) {
+        this(conn, dbId, tableId, db, table, type, safe, false);
+    }
+
+    /**
+     * @param rows whether the server accepted the row layout of {@code type} at schema registration
+     */
+    RemoteTable(Connection conn, short dbId, short tableId, String db, String table, Class<T> type, boolean safe, boolean rows) {
         this.conn = conn;
         this.dbId = dbId;
         this.tableId = tableId;
@@ -64,6 +109,13 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         this.table = table;
         this.type = type;
         this.safe = safe;
+        this.noReply = !safe && Config.NOREPLY_ENABLED;
+        this.timeoutMillis = Config.REQUEST_TIMEOUT_MS;
+        this.codec = EntityCodec.isEntity(type) ? EntityCodec.of(type) : null;
+        this.rows = rows && codec != null;
+        this.types = type == Object.class && Config.TYPE_DICTIONARY && conn.supportsTypeIds()
+            ? new TypeDictionary(conn, db, table)
+            : null;
 
         if (Config.CACHE_ENABLED) {
             BonsApi.LOGGER.info("LocalCache enabled for table: " + table + " (ID: " + tableId + ")");
@@ -82,110 +134,280 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         }
     }
 
-    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(8192));
+    private RemoteTable(RemoteTable<T> source, long timeoutMillis) {
+        this.conn = source.conn;
+        this.dbId = source.dbId;
+        this.tableId = source.tableId;
+        this.db = source.db;
+        this.table = source.table;
+        this.type = source.type;
+        this.safe = source.safe;
+        this.noReply = source.noReply;
+        this.cache = source.cache;
+        this.timeoutMillis = timeoutMillis;
+        this.codec = source.codec;
+        this.rows = source.rows;
+        this.types = source.types;
+    }
 
-    private byte[] encodePrimitive(Object obj) {
-        if (obj == null) return null;
+    /**
+     * A view of this table whose requests fail with a {@code TimeoutException} when
+     * unanswered after {@code timeout}; zero waits forever. Shares the connection and cache.
+     */
+    public RemoteTable<T> withTimeout(long timeout, TimeUnit unit) {
+        return new RemoteTable<>(this, unit.toMillis(timeout));
+    }
 
+    /**
+     * Writes {@code obj} in the Bonsai Fast encoding straight into the request buffer.
+     *
+     * @return false if {@code obj} is not a supported primitive and nothing was written
+     */
+    private static boolean writePrimitive(WireBuffer out, Object obj) {
         if (obj instanceof String) {
             String str = (String) obj;
-            byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
-            int len = strBytes.length;
-
-            ByteBuffer buf = ENCODE_BUFFER.get();
-            buf.clear();
-
-            buf.put(MAGIC_BYTE);
-            if (len < 128) {
-                buf.put(TYPE_STRING);
-                buf.put((byte) len);
-            } else {
-                buf.put(TYPE_STRING);
-                buf.putInt(len | 0x80000000); // High bit set = 4-byte length
-            }
-            buf.put(strBytes);
-
-            byte[] result = new byte[buf.position()];
-            buf.flip();
-            buf.get(result);
-            return result;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_STRING);
+            putLength(out, WireBuffer.utf8Length(str));
+            out.putUtf8(str);
+            return true;
         }
         else if (obj instanceof Integer) {
-            int val = (Integer) obj;
-            return new byte[] {
-                MAGIC_BYTE,
-                TYPE_INTEGER,
-                (byte) (val >>> 24),
-                (byte) (val >>> 16),
-                (byte) (val >>> 8),
-                (byte) val
-            };
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_INTEGER);
+            out.putInt((Integer) obj);
+            return true;
         }
         else if (obj instanceof Long) {
-            long val = (Long) obj;
-            return new byte[] {
-                MAGIC_BYTE,
-                TYPE_LONG,
-                (byte) (val >>> 56),
-                (byte) (val >>> 48),
-                (byte) (val >>> 40),
-                (byte) (val >>> 32),
-                (byte) (val >>> 24),
-                (byte) (val >>> 16),
-                (byte) (val >>> 8),
-                (byte) val
-            };
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_LONG);
+            out.putLong((Long) obj);
+            return true;
         }
         else if (obj instanceof Boolean) {
-            return new byte[] { MAGIC_BYTE, TYPE_BOOLEAN, (byte) ((Boolean) obj ? 0x01 : 0x00) };
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_BOOLEAN);
+            out.putByte((Boolean) obj ? 0x01 : 0x00);
+            return true;
+        }
+        else if (obj instanceof Double) {
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_DOUBLE);
+            out.putLong(Double.doubleToRawLongBits((Double) obj));
+            return true;
+        }
+        else if (obj instanceof Float) {
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_FLOAT);
+            out.putInt(Float.floatToRawIntBits((Float) obj));
+            return true;
+        }
+        else if (obj instanceof Short) {
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_SHORT);
+            out.putShort((Short) obj);
+            return true;
+        }
+        else if (obj instanceof Byte) {
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_BYTE);
+            out.putByte((Byte) obj);
+            return true;
+        }
+        else if (obj instanceof byte[]) {
+            byte[] bytes = (byte[]) obj;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_BYTES);
+            putLength(out, bytes.length);
+            out.putBytes(bytes);
+            return true;
+        }
+        else if (obj instanceof UUID) {
+            UUID uuid = (UUID) obj;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_UUID);
+            out.putLong(uuid.getMostSignificantBits());
+            out.putLong(uuid.getLeastSignificantBits());
+            return true;
+        }
+        else if (obj instanceof int[]) {
+            int[] array = (int[]) obj;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_INT_ARRAY);
+            putLength(out, array.length);
+            out.ensure(array.length * 4);
+            for (int v : array) out.putInt(v);
+            return true;
         }
+        else if (obj instanceof long[]) {
+            long[] array = (long[]) obj;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_LONG_ARRAY);
+            putLength(out, array.length);
+            out.ensure(array.length * 8);
+            for (long v : array) out.putLong(v);
+            return true;
+        }
+        else if (obj instanceof double[]) {
+            double[] array = (double[]) obj;
+            out.putByte(MAGIC_BYTE);
+            out.putByte(TYPE_DOUBLE_ARRAY);
+            putLength(out, array.length);
+            out.ensure(array.length * 8);
+            for (double v : array) out.putLong(Double.doubleToRawLongBits(v));
+            return true;
+        }
+
+        return false; // Not a supported primitive type
+    }
+
+    /**
+     * Enums are only fast-encoded in tables of their own type, which is what tells the
+     * reader the class. The ordinal is followed by a checksum of the constant names, so a
+     * value stored before the enum's constants were reordered or renamed is rejected
+     * instead of silently read as another constant.
+     */
+    private static void writeEnum(WireBuffer out, Enum<?> value) {
+        out.putByte(MAGIC_BYTE);
+        out.putByte(TYPE_ENUM);
+        out.putShort(value.ordinal());
+        out.putInt(ENUM_SCHEMAS.get(value.getDeclaringClass()).checksum);
+    }
+
+    /**
+     * One byte below 128, otherwise four with the high bit set.
+     */
+    private static void putLength(WireBuffer out, int len) {
+        if (len < 128) {
+            out.putByte(len);
+        } else {
+            out.putInt(len | 0x80000000);
+        }
+    }
+
+    /**
+     * Lets Fory serialize into the request buffer. Fory grows the array itself when
+     * it runs out of room, so the buffer adopts whatever array it ends up with.
+     */
+    private static void writeFory(WireBuffer out, Object obj) {
+        MemoryBuffer buffer = MemoryBuffer.fromByteArray(out.array());
+        buffer.writerIndex(out.position());
+        FORY.serialize(buffer, obj);
+        out.adopt(buffer.getHeapMemory(), buffer.writerIndex());
+    }
+
+    void writeValue(WireBuffer out, T value) {
+        if (writePrimitive(out, value)) return;
 
-        return null; // Not a supported primitive type
+        if (value instanceof Enum && ((Enum<?>) value).getDeclaringClass() == type) {
+            writeEnum(out, (Enum<?>) value);
+        } else if (type == Object.class) {
+            writeWithTypeInfo(out, value);
+        } else if (rows && value != null && value.getClass() == type) {
+            codec.writeRow(out, value);
+        } else {
+            Object toSend = codec != null && value != null && value.getClass() == type
+                ? codec.toMap(value)
+                : EntityCodec.toSerializable(value);
+            if (!writePrimitive(out, toSend)) {
+                writeFory(out, toSend);
+            }
+        }
     }
 
-    private Object decodePrimitive(byte[] bytes) {
-        if (bytes == null || bytes.length < 2) return null;
+    private Object decodePrimitive(byte[] bytes, int off, int len) {
+        if (bytes == null || len < 2) return null;
 
-        if (bytes[0] != MAGIC_BYTE) {
+        if (bytes[off] != MAGIC_BYTE) {
             return null; // Not our encoding, use Fory
         }
 
-        byte typeMarker = bytes[1];
+        byte typeMarker = bytes[off + 1];
+        int at = off + 2;
+        int end = off + len;
 
         switch (typeMarker) {
-            case TYPE_STRING:
-                
-                int strLen;
-                int offset;
-                if (bytes.length > 2 && bytes[2] >= 0) {
-                    // 1-byte length
-                    strLen = bytes[2] & 0xFF;
-                    offset = 3;
-                } else if (bytes.length > 6) {
-                    // 4-byte length with high bit set
-                    strLen = ((bytes[2] & 0x7F) << 24) | ((bytes[3] & 0xFF) << 16) |
-                             ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
-                    offset = 6;
-                } else {
-                    return null; // Invalid format
-                }
-                return new String(bytes, offset, strLen, StandardCharsets.UTF_8);
+            case TYPE_STRING: {
+                int p = skipLength(bytes, at, end);
+                if (p < 0) return null;
+                int n = lengthAt(bytes, at);
+                if (n > end - p) return null;
+                return new String(bytes, p, n, StandardCharsets.UTF_8);
+            }
 
             case TYPE_INTEGER:
-                if (bytes.length < 6) return null;
-                return ((bytes[2] & 0xFF) << 24) | ((bytes[3] & 0xFF) << 16) |
-                       ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
+                if (len < 6) return null;
+                return readInt(bytes, at);
 
             case TYPE_LONG:
-                if (bytes.length < 10) return null;
-                return ((long)(bytes[2] & 0xFF) << 56) | ((long)(bytes[3] & 0xFF) << 48) |
-                       ((long)(bytes[4] & 0xFF) << 40) | ((long)(bytes[5] & 0xFF) << 32) |
-                       ((long)(bytes[6] & 0xFF) << 24) | ((long)(bytes[7] & 0xFF) << 16) |
-                       ((long)(bytes[8] & 0xFF) << 8) | (long)(bytes[9] & 0xFF);
+                if (len < 10) return null;
+                return readLong(bytes, at);
 
             case TYPE_BOOLEAN:
-                if (bytes.length < 3) return null;
-                return bytes[2] != 0x00;
+                if (len < 3) return null;
+                return bytes[at] != 0x00;
+
+            case TYPE_DOUBLE:
+                if (len < 10) return null;
+                return Double.longBitsToDouble(readLong(bytes, at));
+
+            case TYPE_FLOAT:
+                if (len < 6) return null;
+                return Float.intBitsToFloat(readInt(bytes, at));
+
+            case TYPE_SHORT:
+                if (len < 4) return null;
+                return (short) (((bytes[at] & 0xFF) << 8) | (bytes[at + 1] & 0xFF));
+
+            case TYPE_BYTE:
+                if (len < 3) return null;
+                return bytes[at];
+
+            case TYPE_ENUM:
+                if (len < 8) return null;
+                return decodeEnum(((bytes[at] & 0xFF) << 8) | (bytes[at + 1] & 0xFF), readInt(bytes, at + 2));
+
+            case TYPE_BYTES: {
+                int p = skipLength(bytes, at, end);
+                if (p < 0) return null;
+                int n = lengthAt(bytes, at);
+                if (n > end - p) return null;
+                return Arrays.copyOfRange(bytes, p, p + n);
+            }
+
+            case TYPE_UUID:
+                if (len < 18) return null;
+                return new UUID(readLong(bytes, at), readLong(bytes, at + 8));
+
+            case TYPE_INT_ARRAY: {
+                int p = skipLength(bytes, at, end);
+                if (p < 0) return null;
+                int n = lengthAt(bytes, at);
+                if ((long) n * 4 > end - p) return null;
+                int[] array = new int[n];
+                for (int i = 0; i < n; i++, p += 4) array[i] = readInt(bytes, p);
+                return array;
+            }
+
+            case TYPE_LONG_ARRAY: {
+                int p = skipLength(bytes, at, end);
+                if (p < 0) return null;
+                int n = lengthAt(bytes, at);
+                if ((long) n * 8 > end - p) return null;
+                long[] array = new long[n];
+                for (int i = 0; i < n; i++, p += 8) array[i] = readLong(bytes, p);
+                return array;
+            }
+
+            case TYPE_DOUBLE_ARRAY: {
+                int p = skipLength(bytes, at, end);
+                if (p < 0) return null;
+                int n = lengthAt(bytes, at);
+                if ((long) n * 8 > end - p) return null;
+                double[] array = new double[n];
+                for (int i = 0; i < n; i++, p += 8) array[i] = Double.longBitsToDouble(readLong(bytes, p));
+                return array;
+            }
 
             default:
                 
@@ -193,6 +415,64 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         }
     }
 
+    private Object decodeEnum(int ordinal, int checksum) {
+        if (!type.isEnum()) {
+            throw new IllegalStateException("Table '" + table + "' holds an enum constant but is not typed with its enum");
+        }
+        EnumSchema schema = ENUM_SCHEMAS.get(type);
+        if (checksum != schema.checksum || ordinal >= schema.constants.length) {
+            throw new IllegalStateException("Constants of " + type.getSimpleName() + " changed since ordinal " + ordinal + " was stored");
+        }
+        return schema.constants[ordinal];
+    }
+
+    /**
+     * Skips a length written by {@link #putLength} at {@code at}.
+     *
+     * @return where the payload starts, or -1 if the length is cut short
+     */
+    private static int skipLength(byte[] bytes, int at, int end) {
+        if (at >= end) return -1;
+        if (bytes[at] >= 0) return at + 1;
+        return end - at >= 4 ? at + 4 : -1;
+    }
+
+    private static int lengthAt(byte[] bytes, int at) {
+        return bytes[at] >= 0 ? bytes[at] : readInt(bytes, at) & 0x7FFFFFFF;
+    }
+
+    private static int readInt(byte[] bytes, int at) {
+        return ((bytes[at] & 0xFF) << 24) | ((bytes[at + 1] & 0xFF) << 16) |
+               ((bytes[at + 2] & 0xFF) << 8) | (bytes[at + 3] & 0xFF);
+    }
+
+    private static long readLong(byte[] bytes, int at) {
+        return ((long) readInt(bytes, at) << 32) | (readInt(bytes, at + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Decodes one stored value from a slice of a response body without copying it out first.
+     */
+    private Object decodeValue(byte[] bytes, int off, int len) {
+        if (codec != null && EntityCodec.isRow(bytes, off, len)) {
+            try {
+                return codec.readRow(bytes, off, len, this::lookupRowLayout);
+            } catch (InstantiationException e) {
+                throw new IllegalStateException("Cannot instantiate " + type.getSimpleName(), e);
+            }
+        }
+
+        Object obj = decodePrimitive(bytes, off, len);
+        if (obj == null) {
+            if (type == Object.class) {
+                obj = deserializeWithTypeInfo(bytes, off, len);
+            } else {
+                obj = FORY.deserialize(MemoryBuffer.fromByteArray(bytes, off, len));
+            }
+        }
+        return obj;
+    }
+
     @Override
     public BonsaiFuture<T> getAsync(String key) {
         T cached = getIfPresent(key);
@@ -201,41 +481,75 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         }
 
         
-        CompletableFuture<byte[]> io = conn.send(RequestOp.GET, dbId, tableId, key, null, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.GET, dbId, tableId, key, null, (byte) 0x01, timeoutMillis);
         CompletableFuture<T> safe = io.handleAsync((bytes, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
-            if (bytes == null || bytes.length == 0) return null;
+            if (bytes == null || bytes.length == 0) return CompletableFuture.<T>completedFuture(null);
+            return PendingLoad.decode(() -> decodeResult(key, bytes, 0, bytes.length));
+        }, BonsApi.WORKER_POOL).thenCompose(decoded -> decoded);
+        return new BonsaiFuture<>(safe);
+    }
 
-            Object obj = decodePrimitive(bytes);
-            if (obj == null) {
-                
-                if (type == Object.class) {
-                    obj = deserializeWithTypeInfo(bytes);
-                } else {
-                    obj = FORY.deserialize(bytes);
-                }
-            }
+    /**
+     * Asks the server for the layout of a row version this client has not seen,
+     * written before a field change or by a client that already runs the next one.
+     */
+    private CompletableFuture<byte[]> lookupRowLayout(int version) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("table", table);
+        payload.put("columns", Collections.emptyList());
+        payload.put("rowVersions", Collections.singletonList(version));
+
+        byte[] bytes = JsonUtil.toJson(payload).getBytes(StandardCharsets.UTF_8);
+        return conn.send(RequestOp.REGISTER_SCHEMA, (short) 0, (short) 0, db, bytes, (byte) 0x01, timeoutMillis);
+    }
 
-            if (type == Object.class || type.isInstance(obj)) {
-                @SuppressWarnings("unchecked")
-                T result = (T) obj;
-                put(key, result);
-                return result;
-            }
+    /**
+     * Decodes a stored value of {@code key}, converts it to the table type and caches it.
+     *
+     * @throws PendingLoad if the value needs a row layout that is being looked up
+     */
+    T decodeResult(String key, byte[] bytes, int off, int len) {
+        Object obj = decodeValue(bytes, off, len);
+
+        if (type == Object.class || type.isInstance(obj)) {
+            @SuppressWarnings("unchecked")
+            T result = (T) obj;
+            put(key, result);
+            return result;
+        }
 
-            
-            T out = convertFromSerializable(obj, type);
-            if (out == null && obj != null) {
-                throw new ClassCastException(
-                    "Type mismatch: table '" + table + "' expects " + type.getSimpleName() +
-                    ", but stored value is " + obj.getClass().getSimpleName() +
-                    ". Use .use(\"" + table + "\", Object.class) to allow mixed types."
-                );
-            }
-            put(key, out);
-            return out;
-        }, BonsApi.WORKER_POOL);
-        return new BonsaiFuture<>(safe);
+        
+        T out = convertFromSerializable(obj, type);
+        if (out == null && obj != null) {
+            throw new ClassCastException(
+                "Type mismatch: table '" + table + "' expects " + type.getSimpleName() +
+                ", but stored value is " + obj.getClass().getSimpleName() +
+                ". Use .use(\"" + table + "\", Object.class) to allow mixed types."
+            );
+        }
+        put(key, out);
+        return out;
+    }
+
+    /**
+     * The error a write of {@code value} should fail with, or null if the table accepts it.
+     */
+    ClassCastException typeMismatch(Object value) {
+        if (type == Object.class || value == null || type.isInstance(value)) return null;
+        return new ClassCastException(
+            "Type mismatch: table '" + table + "' expects " + type.getSimpleName() +
+            ", but got " + value.getClass().getSimpleName() +
+            ". Use .use(\"" + table + "\", Object.class) to allow mixed types."
+        );
+    }
+
+    Connection connection() {
+        return conn;
+    }
+
+    boolean isSafe() {
+        return safe;
     }
 
     @Override
@@ -262,64 +576,55 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         }
 
         // Encode MGET payload: count(4) + [keyLen(2) + keyBytes]...
-        int payloadSize = 4;
-        byte[][] keyBytes = new byte[missingKeys.size()][];
-        for (int i = 0; i < missingKeys.size(); i++) {
-            keyBytes[i] = missingKeys.get(i).getBytes(StandardCharsets.UTF_8);
-            payloadSize += 2 + keyBytes[i].length;
-        }
-        ByteBuffer payloadBuf = ByteBuffer.allocate(payloadSize);
-        payloadBuf.putInt(missingKeys.size());
-        for (byte[] kb : keyBytes) {
-            payloadBuf.putShort((short) kb.length);
-            payloadBuf.put(kb);
-        }
+        PayloadWriter payload = out -> {
+            out.putInt(missingKeys.size());
+            for (String k : missingKeys) {
+                out.putShort(WireBuffer.utf8Length(k));
+                out.putUtf8(k);
+            }
+        };
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.MGET, dbId, tableId, "", payloadBuf.array(), (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.sendEncoded(RequestOp.MGET, dbId, tableId, "", payload, (byte) 0x01, timeoutMillis);
         CompletableFuture<Map<String, T>> result = io.handleAsync((body, ex) -> {
             if (ex != null) throw new RuntimeException(ex);
-            if (body == null || body.length < 4) return cachedResults;
-
-            // Decode response: count(4) + [keyLen(2) + keyBytes + valueLen(4) + valueBytes]...
-            ByteBuffer buf = ByteBuffer.wrap(body);
-            int count = buf.getInt();
-            for (int i = 0; i < count; i++) {
-                short kl = buf.getShort();
-                byte[] kb = new byte[kl];
-                buf.get(kb);
-                String key = new String(kb, StandardCharsets.UTF_8);
-                int vl = buf.getInt();
-                if (vl > 0) {
-                    byte[] valBytes = new byte[vl];
-                    buf.get(valBytes);
-
-                    Object obj = decodePrimitive(valBytes);
-                    if (obj == null) {
-                        if (type == Object.class) {
-                            obj = deserializeWithTypeInfo(valBytes);
-                        } else {
-                            obj = FORY.deserialize(valBytes);
-                        }
-                    }
-
-                    T val = null;
-                    if (type == Object.class || type.isInstance(obj)) {
-                        @SuppressWarnings("unchecked")
-                        T casted = (T) obj;
-                        val = casted;
-                    } else {
-                        val = convertFromSerializable(obj, type);
-                    }
-
-                    if (val != null) {
-                        put(key, val);
-                        cachedResults.put(key, val);
-                    }
+            if (body == null || body.length < 4) return CompletableFuture.completedFuture(cachedResults);
+            return PendingLoad.decode(() -> decodeMget(body, cachedResults));
+        }, BonsApi.WORKER_POOL).thenCompose(decoded -> decoded);
+        return new BonsaiFuture<>(result);
+    }
+
+    private Map<String, T> decodeMget(byte[] body, Map<String, T> results) {
+        // Decode response: count(4) + [keyLen(2) + keyBytes + valueLen(4) + valueBytes]...
+        // Keys and values are decoded in place from the body, no per-entry copies.
+        ByteBuffer buf = ByteBuffer.wrap(body);
+        int count = buf.getInt();
+        for (int i = 0; i < count; i++) {
+            int kl = buf.getShort() & 0xFFFF;
+            String key = new String(body, buf.position(), kl, StandardCharsets.UTF_8);
+            buf.position(buf.position() + kl);
+            int vl = buf.getInt();
+            if (vl > 0) {
+                int valueOffset = buf.position();
+                buf.position(valueOffset + vl);
+
+                Object obj = decodeValue(body, valueOffset, vl);
+
+                T val = null;
+                if (type == Object.class || type.isInstance(obj)) {
+                    @SuppressWarnings("unchecked")
+                    T casted = (T) obj;
+                    val = casted;
+                } else {
+                    val = convertFromSerializable(obj, type);
+                }
+
+                if (val != null) {
+                    put(key, val);
+                    results.put(key, val);
                 }
             }
-            return cachedResults;
-        }, BonsApi.WORKER_POOL);
-        return new BonsaiFuture<>(result);
+        }
+        return results;
     }
 
     @Override
@@ -329,39 +634,23 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
 
     @Override
     public BonsaiFuture<Void> setAsync(String key, T value) {
-        if (type != Object.class && value != null && !type.isInstance(value)) {
+        ClassCastException mismatch = typeMismatch(value);
+        if (mismatch != null) {
             CompletableFuture<Void> failed = new CompletableFuture<>();
-            failed.completeExceptionally(new ClassCastException(
-                "Type mismatch: table '" + table + "' expects " + type.getSimpleName() +
-                ", but got " + value.getClass().getSimpleName() +
-                ". Use .use(\"" + table + "\", Object.class) to allow mixed types."
-            ));
+            failed.completeExceptionally(mismatch);
             return new BonsaiFuture<>(failed);
         }
 
         put(key, value);
 
-        byte[] payload;
+        byte flags = (byte) (safe ? 0x01 : 0x00);  // Bit 0: safe mode
 
-        if (value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean) {
-            payload = encodePrimitive(value);
-        } else {
-            
-            if (type == Object.class) {
-                payload = serializeWithTypeInfo(value);
-            } else {
-                
-                Object toSend = convertToSerializable(value);
-                payload = encodePrimitive(toSend);
-                if (payload == null) {
-                    payload = FORY.serialize(toSend);
-                }
-            }
+        if (noReply) {
+            conn.sendNoReply(RequestOp.SET, dbId, tableId, key, out -> writeValue(out, value), flags);
+            return BonsaiFuture.completed(null);
         }
 
-        byte flags = (byte) (safe ? 0x01 : 0x00);  // Bit 0: safe mode
-
-        CompletableFuture<byte[]> io = conn.send(RequestOp.SET, dbId, tableId, key, payload, flags);
+        CompletableFuture<byte[]> io = conn.sendEncoded(RequestOp.SET, dbId, tableId, key, out -> writeValue(out, value), flags, timeoutMillis);
         return new BonsaiFuture<>(io.handleAsync((r, e) -> {
             if (e != null) {
                 invalidate(key);
@@ -373,42 +662,28 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
 
     @Override
     public BonsaiFuture<Void> setAsync(String key, T value, long ttl, TimeUnit unit) {
-        if (type != Object.class && value != null && !type.isInstance(value)) {
+        ClassCastException mismatch = typeMismatch(value);
+        if (mismatch != null) {
             CompletableFuture<Void> failed = new CompletableFuture<>();
-            failed.completeExceptionally(new ClassCastException(
-                "Type mismatch: table '" + table + "' expects " + type.getSimpleName() +
-                ", but got " + value.getClass().getSimpleName() +
-                ". Use .use(\"" + table + "\", Object.class) to allow mixed types."
-            ));
+            failed.completeExceptionally(mismatch);
             return new BonsaiFuture<>(failed);
         }
 
         put(key, value);
 
-        byte[] data;
-
-        if (value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean) {
-            data = encodePrimitive(value);
-        } else {
-            if (type == Object.class) {
-                data = serializeWithTypeInfo(value);
-            } else {
-                Object toSend = convertToSerializable(value);
-                data = encodePrimitive(toSend);
-                if (data == null) {
-                    data = FORY.serialize(toSend);
-                }
-            }
-        }
-
         long expiry = System.currentTimeMillis() + unit.toMillis(ttl);
-        byte[] payload = new byte[8 + data.length];
-        ByteBuffer.wrap(payload).putLong(expiry);
-        System.arraycopy(data, 0, payload, 8, data.length);
-
         byte flags = (byte) ((safe ? 0x01 : 0x00) | 0x02);
+        PayloadWriter payload = out -> {
+            out.putLong(expiry);
+            writeValue(out, value);
+        };
+
+        if (noReply) {
+            conn.sendNoReply(RequestOp.SET, dbId, tableId, key, payload, flags);
+            return BonsaiFuture.completed(null);
+        }
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.SET, dbId, tableId, key, payload, flags);
+        CompletableFuture<byte[]> io = conn.sendEncoded(RequestOp.SET, dbId, tableId, key, payload, flags, timeoutMillis);
         return new BonsaiFuture<>(io.handleAsync((r, e) -> {
             if (e != null) {
                 invalidate(key);
@@ -424,7 +699,12 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
 
         byte flags = (byte) (safe ? 0x01 : 0x00);  // Bit 0: safe mode
 
-        CompletableFuture<byte[]> io = conn.send(RequestOp.DELETE, dbId, tableId, key, null, flags);
+        if (noReply) {
+            conn.sendNoReply(RequestOp.DELETE, dbId, tableId, key, null, flags);
+            return BonsaiFuture.completed(null);
+        }
+
+        CompletableFuture<byte[]> io = conn.send(RequestOp.DELETE, dbId, tableId, key, null, flags, timeoutMillis);
 
         return new BonsaiFuture<>(io.handleAsync((r, e) -> {
             if (e != null) throw new RuntimeException(e);
@@ -435,69 +715,22 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
     @Override
     public BonsaiFuture<Boolean> existsAsync(String key) {
         
-        CompletableFuture<byte[]> io = conn.send(RequestOp.EXISTS, dbId, tableId, key, null, (byte) 0x01);
+        CompletableFuture<byte[]> io = conn.send(RequestOp.EXISTS, dbId, tableId, key, null, (byte) 0x01, timeoutMillis);
         return new BonsaiFuture<>(io.thenApplyAsync(bytes -> bytes != null && bytes.length > 0 && bytes[0] == 1, BonsApi.WORKER_POOL));
     }
 
     @Override
     public Query<T> find() {
-        return new RemoteQuery<>(conn, dbId, tableId, type);
-    }
-
-    private List<Field> getCachedFields(Class<?> clazz) {
-        return fieldCache.computeIfAbsent(clazz, c -> {
-            List<Field> list = new ArrayList<>();
-            Class<?> current = c;
-            while (current != null && current != Object.class) {
-                for (Field f : current.getDeclaredFields()) {
-                    if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())) continue;
-                    if (f.isAnnotationPresent(BonsaiIgnore.class)) continue;
-                    f.setAccessible(true);
-                    list.add(f);
-                }
-                current = current.getSuperclass();
-            }
-            return list;
-        });
-    }
-
-    private Object convertToSerializable(Object val) {
-        if (val == null) return null;
-        if (isPrimitiveOrBasic(val.getClass())) return val;
-        if (val instanceof Enum) return ((Enum<?>) val).name();
-
-        if (val instanceof Map) {
-            Map<String, Object> copy = new HashMap<>();
-            ((Map<?, ?>) val).forEach((k, v) -> copy.put(String.valueOf(k), convertToSerializable(v)));
-            return copy;
-        }
-        if (val instanceof List) {
-            List<Object> copy = new ArrayList<>();
-            for (Object o : (List<?>) val) copy.add(convertToSerializable(o));
-            return copy;
-        }
-        if (val.getClass().isArray()) {
-            int len = Array.getLength(val);
-            List<Object> copy = new ArrayList<>(len);
-            for (int i = 0; i < len; i++) copy.add(convertToSerializable(Array.get(val, i)));
-            return copy;
-        }
-
-        
-        Map<String, Object> map = new HashMap<>();
-        try {
-            for (Field f : getCachedFields(val.getClass())) {
-                Object v = f.get(val);
-                if (v != null) map.put(f.getName(), convertToSerializable(v));
-            }
-        } catch (Exception ignored) {}
-        return map;
+        return new RemoteQuery<>(conn, dbId, tableId, type, timeoutMillis, this::lookupRowLayout);
     }
 
     @SuppressWarnings("unchecked")
     private T convertFromSerializable(Object obj, Class<T> clazz) {
         if (obj == null) return null;
         if (clazz.isInstance(obj)) return clazz.cast(obj);
+        if (clazz.isEnum() && obj instanceof String) {
+            return (T) CastUtil.coerce(obj, clazz); // Stored by name before enums had their own encoding
+        }
 
         if (obj instanceof Map) {
             return mapToPojo((Map<String, Object>) obj, clazz);
@@ -505,18 +738,9 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         return null;
     }
 
-    @SuppressWarnings("unchecked")
     private <R> R mapToPojo(Map<String, Object> map, Class<R> clazz) {
         try {
-            R instance = (R) unsafe.allocateInstance(clazz);
-
-            for (Field f : getCachedFields(clazz)) {
-                Object val = map.get(f.getName());
-                if (val != null) {
-                    f.set(instance, coerce(val, f.getType()));
-                }
-            }
-            return instance;
+            return EntityCodec.of(clazz).fromMap(map);
         } catch (Exception e) {
             try {
                 String json = JsonUtil.toJson(map);
@@ -529,87 +753,74 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private Object coerce(Object val, Class<?> target) {
-        if (val == null) return null;
-        if (target.isInstance(val)) return val;
-
-        if (target.isEnum() && val instanceof String) {
-            return Enum.valueOf((Class<Enum>) target, (String) val);
-        }
-        if (target == Long.class || target == long.class) return ((Number) val).longValue();
-        if (target == Integer.class || target == int.class) return ((Number) val).intValue();
-        if (target == Double.class || target == double.class) return ((Number) val).doubleValue();
-        if (target == Float.class || target == float.class) return ((Number) val).floatValue();
-        if (target == Boolean.class || target == boolean.class) {
-            if (val instanceof Number) return ((Number) val).intValue() != 0;
-            return Boolean.valueOf(val.toString());
-        }
-
-        if (val instanceof Map && !Map.class.isAssignableFrom(target)) {
-            return mapToPojo((Map<String, Object>) val, target);
+    /**
+     * Prefixes the value with its class: {@code 0x8000 | id} once the table's
+     * {@link TypeDictionary} has an id for it, otherwise {@code nameLen(2) + name}.
+     */
+    private void writeWithTypeInfo(WireBuffer out, Object value) {
+        if (value == null) return;
+
+        Class<?> clazz = value.getClass();
+        int id = types == null ? 0 : types.idOf(clazz);
+        if (id > 0) {
+            out.putShort(TypeDictionary.ID_FLAG | id);
+        } else {
+            String className = clazz.getName();
+            out.putShort(WireBuffer.utf8Length(className));
+            out.putUtf8(className);
         }
-        return val;
-    }
-
-    private boolean isPrimitiveOrBasic(Class<?> c) {
-        return c.isPrimitive() || Number.class.isAssignableFrom(c) ||
-                Boolean.class == c || String.class == c || Character.class == c;
-    }
-
-    private byte[] serializeWithTypeInfo(Object value) {
-        if (value == null) return null;
-
-        String className = value.getClass().getName();
-        byte[] classNameBytes = className.getBytes(StandardCharsets.UTF_8);
-
-        Object toSerialize = convertToSerializable(value);
-        byte[] objectBytes = FORY.serialize(toSerialize);
-
-        ByteBuffer buf = ByteBuffer.allocate(2 + classNameBytes.length + objectBytes.length);
-        buf.putShort((short) classNameBytes.length);
-        buf.put(classNameBytes);
-        buf.put(objectBytes);
-
-        return buf.array();
+        writeFory(out, EntityCodec.toSerializable(value));
     }
 
     @SuppressWarnings("unchecked")
-    private Object deserializeWithTypeInfo(byte[] bytes) {
-        if (bytes == null || bytes.length < 2) return null;
-
-        ByteBuffer buf = ByteBuffer.wrap(bytes);
-        short classNameLength = buf.getShort();
+    private Object deserializeWithTypeInfo(byte[] bytes, int off, int len) {
+        if (bytes == null || len < 2) return null;
 
-        if (bytes.length < 2 + classNameLength) return null;
+        int prefix = ((bytes[off] & 0xFF) << 8) | (bytes[off + 1] & 0xFF);
+        Class<?> clazz;
+        int objectOffset;
 
-        byte[] classNameBytes = new byte[classNameLength];
-        buf.get(classNameBytes);
-        String className = new String(classNameBytes, StandardCharsets.UTF_8);
+        if ((prefix & TypeDictionary.ID_FLAG) != 0) {
+            if (types == null) {
+                throw new IllegalStateException("Value in " + table + " has type id " + (prefix & TypeDictionary.ID_MASK) + " but the table has no type dictionary");
+            }
+            clazz = types.classOf(prefix & TypeDictionary.ID_MASK);
+            objectOffset = off + 2;
+        } else {
+            if (len < 2 + prefix) return null;
+            clazz = classForName(new String(bytes, off + 2, prefix, StandardCharsets.UTF_8));
+            objectOffset = off + 2 + prefix;
+        }
 
-        byte[] objectBytes = new byte[bytes.length - 2 - classNameLength];
-        buf.get(objectBytes);
+        Object mapData = FORY.deserialize(MemoryBuffer.fromByteArray(bytes, objectOffset, off + len - objectOffset));
+        if (clazz == null || clazz.isInstance(mapData) || EntityCodec.isPrimitiveOrBasic(clazz)) {
+            return mapData;
+        }
 
-        try {
-            Class<?> clazz = Class.forName(className);
-            Object mapData = FORY.deserialize(objectBytes);
+        if (mapData instanceof Map) {
+            return mapToPojo((Map<String, Object>) mapData, clazz);
+        }
 
-            if (clazz.isInstance(mapData) || isPrimitiveOrBasic(clazz)) {
-                return mapData;
-            }
+        return mapData;
+    }
 
-            if (mapData instanceof Map) {
-                return mapToPojo((Map<String, Object>) mapData, clazz);
+    /**
+     * {@code Class.forName} once per name; null if the class is not on the classpath.
+     */
+    private static Class<?> classForName(String className) {
+        Class<?> clazz = CLASSES_BY_NAME.get(className);
+        if (clazz == null) {
+            try {
+                clazz = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                return null;
             }
-
-            return mapData;
-        } catch (ClassNotFoundException e) {
-            
-            return FORY.deserialize(bytes);
+            CLASSES_BY_NAME.put(className, clazz);
         }
+        return clazz;
     }
 
-    private T getIfPresent(String key) {
+    T getIfPresent(String key) {
         if (Config.CACHE_ENABLED) {
             if (key == null) return null;
             return cache.getIfPresent(key);
@@ -617,7 +828,7 @@ public class RemoteTable<T> extends AUnsafe implements BonsaiTable<T> {
         return null;
     }
 
-    private void put(String key, T val) {
+    void put(String key, T val) {
         if (Config.CACHE_ENABLED) {
             if (val == null) return;
             cache.put(key, val);
@@ -0,0 +1,165 @@
+package net.rainbowcreation.bonsai.api.impl;
+
+import net.rainbowcreation.bonsai.api.BonsApi;
+import net.rainbowcreation.bonsai.api.connection.Connection;
+import net.rainbowcreation.bonsai.connection.RequestOp;
+import net.rainbowcreation.bonsai.util.JsonUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Class name to small id mapping of one mixed-type table. The server owns it, so
+ * every client of the table agrees on the ids, and this client caches it: once a
+ * class has an id, its values are prefixed with {@code 0x8000 | id} instead of the
+ * full class name, and reading one is an array lookup instead of {@code Class.forName}.
+ * <p>
+ * Both directions go through {@code REGISTER_SCHEMA}: a payload with {@code "types"}
+ * adds those class names to the table's dictionary, and the server answers with the
+ * usual ids followed by the whole dictionary, {@code count(2) [nameLen(2) name]*},
+ * where ids count from 1 in that order.
+ * <p>
+ * The prefix's first byte must not read as {@code 0xBF} (fast encoding) or
+ * {@code 0xBE} (row), so this client only writes ids up to {@link #MAX_ID}; classes
+ * with higher ids keep being written by name.
+ */
+final class TypeDictionary {
+    static final int ID_FLAG = 0x8000;
+    static final int ID_MASK = 0x7FFF;
+    static final int MAX_ID = 0x3DFF;
+
+    private final Connection conn;
+    private final String db;
+    private final String table;
+
+    private final Map<Class<?>, Integer> ids = new ConcurrentHashMap<>();
+    private final Set<String> registering = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> unknown = ConcurrentHashMap.newKeySet(); // Still missing after a reload
+    private CompletableFuture<Void> reloading; // Guarded by this; the last reload, done or not
+
+    // Indexed by id; a name without a class is one this client cannot load
+    private volatile String[] names = new String[1];
+    private volatile Class<?>[] classes = new Class<?>[1];
+
+    TypeDictionary(Connection conn, String db, String table) {
+        this.conn = conn;
+        this.db = db;
+        this.table = table;
+    }
+
+    /**
+     * Called while a payload is being encoded, under the transport's write lock, so it
+     * never sends anything itself: the registration is handed to the worker pool.
+     *
+     * @return the id of {@code type}, or 0 if it has none yet; in that case the class
+     * is registered in the background and the caller writes its name this time
+     */
+    int idOf(Class<?> type) {
+        Integer id = ids.get(type);
+        if (id != null) return id;
+
+        String name = type.getName();
+        if (registering.add(name)) {
+            try {
+                CompletableFuture.supplyAsync(() -> exchange(Collections.singletonList(name)), BonsApi.WORKER_POOL)
+                    .thenCompose(registered -> registered)
+                    .whenComplete((ignored, ex) -> {
+                        registering.remove(name);
+                        if (ex != null) BonsApi.LOGGER.warning("Failed to register type " + name + " for " + table + ": " + ex.getMessage());
+                    });
+            } catch (RejectedExecutionException e) {
+                registering.remove(name); // Shutting down; the name is written instead
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Resolves an id read from a stored value. An id this client has not seen, assigned
+     * by another client meanwhile, reloads the dictionary from the server; decodes that
+     * meet ids during the same reload share it. An id that is still missing afterwards
+     * is remembered and not asked for again.
+     *
+     * @return null if the id names a class that is not on the classpath
+     * @throws PendingLoad while the dictionary is being reloaded
+     * @throws IllegalStateException if the dictionary lacks the id
+     */
+    Class<?> classOf(int id) {
+        Class<?>[] known = classes;
+        if (id < known.length && known[id] != null) return known[id];
+        if (id < names.length && names[id] != null) return null;
+        if (unknown.contains(id)) throw unknownId(id);
+
+        throw new PendingLoad(reload().handle((ignored, ex) -> {
+            if (ex != null) {
+                throw new IllegalStateException("Failed to load type dictionary of " + table + " for type id " + id, ex);
+            }
+            if (id >= names.length || names[id] == null) unknown.add(id);
+            return null;
+        }));
+    }
+
+    private synchronized CompletableFuture<Void> reload() {
+        CompletableFuture<Void> current = reloading;
+        if (current == null || current.isDone()) {
+            current = exchange(Collections.emptyList());
+            reloading = current;
+        }
+        return current;
+    }
+
+    private IllegalStateException unknownId(int id) {
+        return new IllegalStateException("Type id " + id + " is not in the type dictionary of " + table);
+    }
+
+    private CompletableFuture<Void> exchange(List<String> register) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("table", table);
+        payload.put("columns", Collections.emptyList());
+        payload.put("types", register);
+
+        byte[] bytes = JsonUtil.toJson(payload).getBytes(StandardCharsets.UTF_8);
+        return conn.send(RequestOp.REGISTER_SCHEMA, (short) 0, (short) 0, db, bytes, (byte) 0x01).thenAccept(this::update);
+    }
+
+    private synchronized void update(byte[] response) {
+        if (response == null || response.length < 5) return;
+
+        ByteBuffer buf = ByteBuffer.wrap(response);
+        buf.position(3); // dbId(1) tableId(2)
+        int count = Math.min(buf.getShort() & 0xFFFF, ID_MASK);
+
+        String[] oldNames = names;
+        Class<?>[] oldClasses = classes;
+        String[] newNames = new String[count + 1];
+        Class<?>[] newClasses = new Class<?>[count + 1];
+
+        for (int id = 1; id <= count && buf.remaining() >= 2; id++) {
+            int len = buf.getShort() & 0xFFFF;
+            if (len > buf.remaining()) break;
+            String name = new String(response, buf.position(), len, StandardCharsets.UTF_8);
+            buf.position(buf.position() + len);
+
+            newNames[id] = name;
+            if (id < oldNames.length && name.equals(oldNames[id])) {
+                newClasses[id] = oldClasses[id];
+            } else {
+                try {
+                    newClasses[id] = Class.forName(name);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    continue;
+                }
+            }
+            if (newClasses[id] != null && id <= MAX_ID) ids.put(newClasses[id], id);
+        }
+
+        classes = newClasses;
+        names = newNames;
+        if (!unknown.isEmpty()) unknown.removeIf(id -> id < newNames.length && newNames[id] != null);
+    }
+}
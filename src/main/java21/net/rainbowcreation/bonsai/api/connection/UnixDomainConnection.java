@@ -0,0 +1,95 @@
+package net.rainbowcreation.bonsai.api.connection;
+
+import net.rainbowcreation.bonsai.api.config.Config;
+
+import java.io.IOException;
+
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@link NioConnection} over a Unix domain socket, for a server on the same host:
+ * no TCP/IP stack, checksums or loopback routing on either side.
+ * Selected by {@code BonsApi} when {@code bonsai.socket.path} is set, or when the
+ * server is on localhost and listens on one of {@link #DEFAULT_PATHS}.
+ */
+public class UnixDomainConnection extends NioConnection {
+    public static final String[] DEFAULT_PATHS = {"/run/bonsai/bonsai.sock", "/tmp/bonsai.sock"};
+
+    public UnixDomainConnection(String path) {
+        super(path, -1);
+    }
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * The socket to use: {@code bonsai.socket.path} if set, otherwise the first of
+     * {@link #DEFAULT_PATHS} that exists when {@code host} is the local machine.
+     *
+     * @return null if there is none
+     */
+    public static String resolvePath(String host) {
+        if (!Config.SOCKET_PATH.isEmpty()) return Config.SOCKET_PATH;
+        if (!"127.0.0.1".equals(host) && !"localhost".equalsIgnoreCase(host) && !"::1".equals(host)) return null;
+
+        for (String path : DEFAULT_PATHS) {
+            if (Files.exists(Path.of(path))) return path;
+        }
+        return null;
+    }
+
+    /**
+     * Whether a server is accepting connections on {@code path}.
+     */
+    public static boolean isReachable(String path) {
+        try (SocketChannel ch = connect(path)) {
+            return ch.isConnected();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected String endpoint() {
+        return "unix:" + host;
+    }
+
+    @Override
+    protected SocketChannel open() throws IOException {
+        SocketChannel ch = connect(host);
+        try {
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, Config.SOCKET_SEND_BUFFER);
+            ch.setOption(StandardSocketOptions.SO_RCVBUF, Config.SOCKET_RECEIVE_BUFFER);
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    /**
+     * Unix domain channels have no {@link java.net.Socket} view to set a read timeout on.
+     */
+    @Override
+    protected void negotiate(SocketChannel ch) throws IOException {
+        negotiateProtocol(ch);
+    }
+
+    private static SocketChannel connect(String path) throws IOException {
+        SocketChannel ch = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            ch.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+}